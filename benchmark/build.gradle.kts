@@ -0,0 +1,32 @@
+// Headless JMH benchmarks for the tree scanners, run with `./gradlew :benchmark:jmh`.
+// JMH options can be passed with -PjmhArgs, for example -PjmhArgs="GenericTree -f 1 -wi 3 -i 5".
+
+val jmhVersion = "1.37"
+
+loom {
+	accessWidenerPath.set(project(":common").loom.accessWidenerPath)
+}
+
+dependencies {
+	modImplementation("net.fabricmc:fabric-loader:${properties["fabric_version"]}")
+	modImplementation("dev.pandasystems:pandalib-fabric:${properties["deps_pandalib_version"]}")
+	modImplementation("dev.architectury:architectury-fabric:${properties["deps_architectury_version"]}")
+
+	implementation(project(":common", "namedElements")) { isTransitive = false }
+
+	implementation("org.openjdk.jmh:jmh-core:$jmhVersion")
+	annotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
+}
+
+tasks.register<JavaExec>("jmh") {
+	group = "benchmark"
+	description = "Runs the JMH benchmarks with the GC profiler for allocation rates."
+
+	dependsOn(tasks.classes)
+	classpath = sourceSets["main"].runtimeClasspath
+	mainClass.set("org.openjdk.jmh.Main")
+	jvmArgs("-Djava.awt.headless=true")
+
+	val extraArgs = (findProperty("jmhArgs") as String?)?.split(" ")?.filter { it.isNotBlank() } ?: listOf()
+	args(listOf("-prof", "gc", "-rf", "json", "-rff", layout.buildDirectory.file("jmh-result.json").get().asFile.path) + extraArgs)
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.benchmark;
+
+import me.pandamods.fallingtrees.FallingTrees;
+import me.pandamods.fallingtrees.api.TreeType;
+import me.pandamods.fallingtrees.config.CommonConfig;
+import me.pandamods.fallingtrees.config.FallingTreesConfig;
+import me.pandamods.fallingtrees.config.common.tree.GenericTreeConfig;
+import me.pandamods.fallingtrees.registry.TreeRegistry;
+import me.pandamods.fallingtrees.trees.ChorusTree;
+import me.pandamods.fallingtrees.trees.GenericTree;
+import me.pandamods.fallingtrees.trees.VerticalTree;
+import me.pandamods.fallingtrees.trees.mushroom.MushroomTree;
+import net.minecraft.SharedConstants;
+import net.minecraft.core.Registry;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sets up just enough of the game for the scanners to run without a server: the vanilla registries, the common config
+ * and the built-in tree types.
+ * <p>
+ * PandaLib is on the benchmark classpath, so the config is read the same way the mod reads it. Without a mod loader the
+ * deferred tree register never runs, the built-in trees are put into the tree registry directly instead.
+ */
+public final class BenchmarkBootstrap {
+	public static GenericTree GENERIC;
+	public static VerticalTree VERTICAL;
+	public static ChorusTree CHORUS;
+	public static MushroomTree MUSHROOM;
+
+	private static boolean initialized = false;
+
+	private BenchmarkBootstrap() {}
+
+	public static synchronized void init() {
+		if (initialized) return;
+
+		SharedConstants.tryDetectVersion();
+		Bootstrap.bootStrap();
+
+		// Tags are only bound by a running server, so the benchmark trees are whitelisted by id instead
+		CommonConfig config = FallingTreesConfig.getCommonConfig();
+		GenericTreeConfig genericConfig = config.trees.genericTree;
+		genericConfig.logFilter.whitelist.addAll(ids(Blocks.OAK_LOG, Blocks.DARK_OAK_LOG, Blocks.JUNGLE_LOG));
+		genericConfig.leavesFilter.whitelist.addAll(ids(Blocks.OAK_LEAVES, Blocks.DARK_OAK_LEAVES, Blocks.JUNGLE_LEAVES));
+		genericConfig.algorithm.maxLogAmount = TreeShape.LATTICE_SIZE * TreeShape.LATTICE_SIZE * TreeShape.LATTICE_SIZE;
+		FallingTreesConfig.markCommonConfigChanged();
+
+		GENERIC = register("generic", new GenericTree());
+		VERTICAL = register("vertical", new VerticalTree());
+		CHORUS = register("chorus", new ChorusTree());
+		MUSHROOM = register("mushroom", new MushroomTree());
+		TreeRegistry.invalidateCache();
+
+		initialized = true;
+	}
+
+	private static <T extends TreeType> T register(String name, T tree) {
+		return Registry.register(TreeRegistry.TREE_REGISTRY, FallingTrees.resourceLocation(name), tree);
+	}
+
+	private static List<String> ids(Block... blocks) {
+		return Arrays.stream(blocks).map(block -> BuiltInRegistries.BLOCK.getKey(block).toString()).toList();
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import me.pandamods.fallingtrees.api.TreeData;
+import me.pandamods.fallingtrees.utils.BlockMapEntityData;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.block.state.BlockState;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding the block map a falling tree is synced to clients with.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockMapCodecBenchmark {
+	@Param({"OAK", "MEGA_JUNGLE", "LOG_LATTICE"})
+	public TreeShape shape;
+
+	private Map<BlockPos, BlockState> blocks;
+	private ByteBuf buffer;
+	private ByteBuf encoded;
+
+	@Setup
+	public void setup() {
+		BenchmarkBootstrap.init();
+		SyntheticTreeView view = new SyntheticTreeView();
+		shape.generate(view);
+		TreeData data = shape.tree().gatherTreeData(TreeShape.ORIGIN, view, null);
+
+		blocks = new HashMap<>();
+		for (BlockPos pos : data.blocks()) {
+			blocks.put(pos, view.getBlockState(pos));
+		}
+
+		buffer = Unpooled.buffer();
+		encoded = Unpooled.buffer();
+		BlockMapEntityData.BLOCK_MAP_CODEC.encode(encoded, blocks);
+	}
+
+	@Benchmark
+	public ByteBuf encode() {
+		buffer.clear();
+		BlockMapEntityData.BLOCK_MAP_CODEC.encode(buffer, blocks);
+		return buffer;
+	}
+
+	@Benchmark
+	public Map<BlockPos, BlockState> decode() {
+		encoded.readerIndex(0);
+		return BlockMapEntityData.BLOCK_MAP_CODEC.decode(encoded);
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.benchmark;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import me.pandamods.fallingtrees.utils.scan.TreeScanView;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.PalettedContainer;
+
+/**
+ * In-memory stand-in for a level, backed by the same palette containers real chunk sections use. Everything that was
+ * not set is air.
+ */
+public class SyntheticTreeView extends TreeScanView {
+	public static final int MIN_Y = -64;
+	public static final int HEIGHT = 384;
+
+	private final Long2ObjectOpenHashMap<PalettedContainer<BlockState>> containers = new Long2ObjectOpenHashMap<>();
+
+	public SyntheticTreeView() {
+		super(null, MIN_Y, HEIGHT);
+	}
+
+	public void setBlock(BlockPos pos, BlockState state) {
+		setBlock(pos.getX(), pos.getY(), pos.getZ(), state);
+	}
+
+	public void setBlock(int x, int y, int z, BlockState state) {
+		long sectionKey = SectionPos.asLong(SectionPos.blockToSectionCoord(x), SectionPos.blockToSectionCoord(y), SectionPos.blockToSectionCoord(z));
+		PalettedContainer<BlockState> container = containers.get(sectionKey);
+		if (container == null) {
+			container = new PalettedContainer<>(Block.BLOCK_STATE_REGISTRY, Blocks.AIR.defaultBlockState(), PalettedContainer.Strategy.SECTION_STATES);
+			containers.put(sectionKey, container);
+			putSection(sectionKey, container);
+		}
+		container.getAndSetUnchecked(x & 15, y & 15, z & 15, state);
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.benchmark;
+
+import me.pandamods.fallingtrees.api.TreeData;
+import me.pandamods.fallingtrees.api.TreeType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full tree detection for every built-in tree type, against a view whose sections are already cached. Run with the GC
+ * profiler to see the allocation rate per gather.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeGatherBenchmark {
+	@Param
+	public TreeShape shape;
+
+	private SyntheticTreeView view;
+	private TreeType tree;
+
+	@Setup
+	public void setup() {
+		BenchmarkBootstrap.init();
+		view = new SyntheticTreeView();
+		shape.generate(view);
+		tree = shape.tree();
+
+		TreeData data = tree.gatherTreeData(TreeShape.ORIGIN, view, null);
+		if (data == null || data.blocks().isEmpty())
+			throw new IllegalStateException("Generated " + shape + " is not detected as a tree");
+	}
+
+	@Benchmark
+	public TreeData gatherTreeData() {
+		TreeData data = tree.gatherTreeData(TreeShape.ORIGIN, view, null);
+		data.blocks();
+		return data;
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.benchmark;
+
+import me.pandamods.fallingtrees.registry.TreeRegistry;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Block state to tree type lookups, as done for every block broken. Uses a fixed random mix of every block state.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeRegistryBenchmark {
+	private static final int LOOKUPS = 1024;
+
+	private BlockState[] states;
+
+	@Setup
+	public void setup() {
+		BenchmarkBootstrap.init();
+		Random random = new Random(42);
+		states = new BlockState[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; i++) {
+			states[i] = Block.stateById(random.nextInt(Block.BLOCK_STATE_REGISTRY.size()));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public void getTree(Blackhole blackhole) {
+		for (BlockState state : states) {
+			blackhole.consume(TreeRegistry.getTree(state));
+		}
+	}
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.benchmark;
+
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import me.pandamods.fallingtrees.api.TreeType;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.LeavesBlock;
+import net.minecraft.world.level.block.state.BlockState;
+
+/**
+ * Procedurally generated trees, each placed with its stem at {@link #ORIGIN}. Generation is deterministic, so every
+ * fork measures the same blocks.
+ */
+public enum TreeShape {
+	OAK {
+		@Override
+		public void generate(SyntheticTreeView view) {
+			ShapeBuilder builder = new ShapeBuilder(Blocks.OAK_LOG.defaultBlockState(), Blocks.OAK_LEAVES.defaultBlockState());
+			builder.column(0, 0, 0, 6);
+			builder.layer(0, 3, 0, 2, true);
+			builder.layer(0, 4, 0, 2, true);
+			builder.layer(0, 5, 0, 1, false);
+			builder.layer(0, 6, 0, 1, true);
+			builder.place(view);
+		}
+
+		@Override
+		public TreeType tree() {
+			return BenchmarkBootstrap.GENERIC;
+		}
+	},
+	DARK_OAK {
+		@Override
+		public void generate(SyntheticTreeView view) {
+			ShapeBuilder builder = new ShapeBuilder(Blocks.DARK_OAK_LOG.defaultBlockState(), Blocks.DARK_OAK_LEAVES.defaultBlockState());
+			for (int x = 0; x <= 1; x++) {
+				for (int z = 0; z <= 1; z++) {
+					builder.column(x, 0, z, 8);
+				}
+			}
+			builder.log(-1, 5, 0);
+			builder.log(-2, 6, 0);
+			builder.log(2, 6, 1);
+			builder.log(3, 7, 1);
+			builder.blob(0, 8, 0, 3);
+			builder.blob(1, 8, 1, 3);
+			builder.blob(-2, 7, 0, 2);
+			builder.blob(3, 8, 1, 2);
+			builder.place(view);
+		}
+
+		@Override
+		public TreeType tree() {
+			return BenchmarkBootstrap.GENERIC;
+		}
+	},
+	MEGA_JUNGLE {
+		@Override
+		public void generate(SyntheticTreeView view) {
+			ShapeBuilder builder = new ShapeBuilder(Blocks.JUNGLE_LOG.defaultBlockState(), Blocks.JUNGLE_LEAVES.defaultBlockState());
+			int height = 28;
+			for (int x = 0; x <= 1; x++) {
+				for (int z = 0; z <= 1; z++) {
+					builder.column(x, 0, z, height);
+				}
+			}
+
+			Direction[] directions = {Direction.NORTH, Direction.EAST, Direction.SOUTH, Direction.WEST};
+			for (int i = 0, y = 10; y < height - 4; i++, y += 4) {
+				Direction direction = directions[i % directions.length];
+				int x = direction.getStepX() > 0 ? 1 : 0;
+				int z = direction.getStepZ() > 0 ? 1 : 0;
+				int branchY = y;
+				for (int step = 1; step <= 3; step++) {
+					x += direction.getStepX();
+					z += direction.getStepZ();
+					builder.log(x, ++branchY, z);
+				}
+				builder.blob(x, branchY + 1, z, 2);
+			}
+			builder.blob(0, height, 0, 4);
+			builder.blob(1, height, 1, 4);
+			builder.place(view);
+		}
+
+		@Override
+		public TreeType tree() {
+			return BenchmarkBootstrap.GENERIC;
+		}
+	},
+	CHORUS {
+		@Override
+		public void generate(SyntheticTreeView view) {
+			chorusBranch(view, 0, 0, 0, 4, null, 3);
+		}
+
+		@Override
+		public TreeType tree() {
+			return BenchmarkBootstrap.CHORUS;
+		}
+	},
+	RED_MUSHROOM {
+		@Override
+		public void generate(SyntheticTreeView view) {
+			BlockState stem = Blocks.MUSHROOM_STEM.defaultBlockState();
+			BlockState cap = Blocks.RED_MUSHROOM_BLOCK.defaultBlockState();
+			int height = 5;
+			for (int y = 0; y < height; y++) {
+				setBlock(view, 0, y, 0, stem);
+			}
+			for (int x = -1; x <= 1; x++) {
+				for (int z = -1; z <= 1; z++) {
+					setBlock(view, x, height, z, cap);
+				}
+			}
+			for (int y = height - 3; y < height; y++) {
+				for (int x = -2; x <= 2; x++) {
+					for (int z = -2; z <= 2; z++) {
+						if (Math.max(Math.abs(x), Math.abs(z)) == 2 && Math.abs(x) + Math.abs(z) < 4)
+							setBlock(view, x, y, z, cap);
+					}
+				}
+			}
+		}
+
+		@Override
+		public TreeType tree() {
+			return BenchmarkBootstrap.MUSHROOM;
+		}
+	},
+	BROWN_MUSHROOM {
+		@Override
+		public void generate(SyntheticTreeView view) {
+			BlockState stem = Blocks.MUSHROOM_STEM.defaultBlockState();
+			BlockState cap = Blocks.BROWN_MUSHROOM_BLOCK.defaultBlockState();
+			int height = 4;
+			for (int y = 0; y < height; y++) {
+				setBlock(view, 0, y, 0, stem);
+			}
+			for (int x = -3; x <= 3; x++) {
+				for (int z = -3; z <= 3; z++) {
+					if (Math.abs(x) + Math.abs(z) < 6)
+						setBlock(view, x, height, z, cap);
+				}
+			}
+		}
+
+		@Override
+		public TreeType tree() {
+			return BenchmarkBootstrap.MUSHROOM;
+		}
+	},
+	BAMBOO {
+		@Override
+		public void generate(SyntheticTreeView view) {
+			BlockState bamboo = Blocks.BAMBOO.defaultBlockState();
+			for (int y = 0; y < 16; y++) {
+				setBlock(view, 0, y, 0, bamboo);
+			}
+		}
+
+		@Override
+		public TreeType tree() {
+			return BenchmarkBootstrap.VERTICAL;
+		}
+	},
+	/**
+	 * A solid cube of {@link #LATTICE_SIZE}³ logs with one layer of leaves on top, the worst case for the log scan.
+	 */
+	LOG_LATTICE {
+		@Override
+		public void generate(SyntheticTreeView view) {
+			ShapeBuilder builder = new ShapeBuilder(Blocks.OAK_LOG.defaultBlockState(), Blocks.OAK_LEAVES.defaultBlockState());
+			for (int x = 0; x < LATTICE_SIZE; x++) {
+				for (int z = 0; z < LATTICE_SIZE; z++) {
+					builder.column(x, 0, z, LATTICE_SIZE);
+					builder.leaves(x, LATTICE_SIZE, z);
+				}
+			}
+			builder.place(view);
+		}
+
+		@Override
+		public TreeType tree() {
+			return BenchmarkBootstrap.GENERIC;
+		}
+	};
+
+	public static final int LATTICE_SIZE = 16;
+	public static final BlockPos ORIGIN = new BlockPos(0, 64, 0);
+
+	public abstract void generate(SyntheticTreeView view);
+
+	public abstract TreeType tree();
+
+	private static void setBlock(SyntheticTreeView view, int x, int y, int z, BlockState state) {
+		view.setBlock(ORIGIN.getX() + x, ORIGIN.getY() + y, ORIGIN.getZ() + z, state);
+	}
+
+	private static void chorusBranch(SyntheticTreeView view, int x, int y, int z, int length, Direction from, int depth) {
+		BlockState plant = Blocks.CHORUS_PLANT.defaultBlockState();
+		for (int i = 0; i < length; i++) {
+			setBlock(view, x, y + i, z, plant);
+		}
+		int top = y + length - 1;
+		if (depth == 0) {
+			setBlock(view, x, top + 1, z, Blocks.CHORUS_FLOWER.defaultBlockState());
+			return;
+		}
+
+		for (Direction direction : Direction.Plane.HORIZONTAL) {
+			if (direction == from || (depth % 2 == 0) == (direction.getAxis() == Direction.Axis.X))
+				continue;
+			int branchX = x + direction.getStepX() * 2;
+			int branchZ = z + direction.getStepZ() * 2;
+			setBlock(view, x + direction.getStepX(), top, z + direction.getStepZ(), plant);
+			setBlock(view, branchX, top, branchZ, plant);
+			chorusBranch(view, branchX, top + 1, branchZ, 2, direction.getOpposite(), depth - 1);
+		}
+		chorusBranch(view, x, top + 1, z, 2, null, depth - 1);
+	}
+
+	/**
+	 * Collects logs and leaves first so leaves can be placed with the distance they would have in a real world.
+	 */
+	private static final class ShapeBuilder {
+		private final BlockState log;
+		private final BlockState leaves;
+		private final LongOpenHashSet logs = new LongOpenHashSet();
+		private final LongOpenHashSet leafPositions = new LongOpenHashSet();
+
+		private ShapeBuilder(BlockState log, BlockState leaves) {
+			this.log = log;
+			this.leaves = leaves.setValue(LeavesBlock.PERSISTENT, false);
+		}
+
+		private void log(int x, int y, int z) {
+			long pos = BlockPos.asLong(x, y, z);
+			logs.add(pos);
+			leafPositions.remove(pos);
+		}
+
+		private void column(int x, int y, int z, int height) {
+			for (int i = 0; i < height; i++) {
+				log(x, y + i, z);
+			}
+		}
+
+		private void leaves(int x, int y, int z) {
+			long pos = BlockPos.asLong(x, y, z);
+			if (!logs.contains(pos))
+				leafPositions.add(pos);
+		}
+
+		private void layer(int centerX, int y, int centerZ, int radius, boolean skipCorners) {
+			for (int x = -radius; x <= radius; x++) {
+				for (int z = -radius; z <= radius; z++) {
+					if (!skipCorners || Math.abs(x) != radius || Math.abs(z) != radius)
+						leaves(centerX + x, y, centerZ + z);
+				}
+			}
+		}
+
+		private void blob(int centerX, int centerY, int centerZ, int radius) {
+			for (int x = -radius; x <= radius; x++) {
+				for (int y = -radius; y <= radius; y++) {
+					for (int z = -radius; z <= radius; z++) {
+						if (x * x + y * y + z * z <= radius * radius + 1)
+							leaves(centerX + x, centerY + y, centerZ + z);
+					}
+				}
+			}
+		}
+
+		private void place(SyntheticTreeView view) {
+			LongIterator logIterator = logs.iterator();
+			while (logIterator.hasNext()) {
+				long pos = logIterator.nextLong();
+				setBlock(view, BlockPos.getX(pos), BlockPos.getY(pos), BlockPos.getZ(pos), log);
+			}
+
+			// Same distance rule as LeavesBlock, capped at 7
+			LongOpenHashSet placed = new LongOpenHashSet();
+			LongArrayFIFOQueue queue = new LongArrayFIFOQueue();
+			logIterator = logs.iterator();
+			while (logIterator.hasNext()) {
+				queue.enqueue(logIterator.nextLong());
+			}
+			int distance = 0;
+			while (!queue.isEmpty() && distance < LeavesBlock.DECAY_DISTANCE) {
+				distance++;
+				for (int i = queue.size(); i > 0; i--) {
+					long current = queue.dequeueLong();
+					for (Direction direction : Direction.values()) {
+						long neighbor = BlockPos.offset(current, direction);
+						if (leafPositions.contains(neighbor) && placed.add(neighbor)) {
+							setBlock(view, BlockPos.getX(neighbor), BlockPos.getY(neighbor), BlockPos.getZ(neighbor),
+									leaves.setValue(LeavesBlock.DISTANCE, distance));
+							queue.enqueue(neighbor);
+						}
+					}
+				}
+			}
+		}
+	}
+}
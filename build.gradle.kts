@@ -29,7 +29,7 @@ allprojects {
 }
 
 subprojects {
-	val isMinecraftSubProject = findProject(":common") != project
+	val isMinecraftSubProject = findProject(":common") != project && findProject(":benchmark") != project
 
 	apply(plugin = "architectury-plugin")
 	apply(plugin = "dev.architectury.loom")
@@ -15,11 +15,11 @@ package me.pandamods.fallingtrees;
 import dev.architectury.platform.Platform;
 import me.pandamods.fallingtrees.config.FallingTreesConfig;
 import me.pandamods.fallingtrees.event.EventHandler;
+import me.pandamods.fallingtrees.network.TreeNetworking;
 import me.pandamods.fallingtrees.registry.EntityRegistry;
 import me.pandamods.fallingtrees.registry.SoundRegistry;
 import me.pandamods.fallingtrees.registry.TreeRegistry;
 import me.pandamods.fallingtrees.utils.BlockMapEntityData;
-import me.pandamods.fallingtrees.utils.ItemListEntityData;
 import net.minecraft.network.syncher.EntityDataSerializers;
 import net.minecraft.resources.ResourceLocation;
 
@@ -34,10 +34,11 @@ public class FallingTrees {
 		SoundRegistry.SOUNDS.register();
 		EntityRegistry.ENTITIES.register();
 		EventHandler.register();
+		TreeNetworking.register();
 
 		if (!Platform.isNeoForge()) {
 			EntityDataSerializers.registerSerializer(BlockMapEntityData.BLOCK_MAP);
-			EntityDataSerializers.registerSerializer(ItemListEntityData.ITEM_LIST);
+			EntityDataSerializers.registerSerializer(BlockMapEntityData.TREE_SHAPE);
 		}
 		instance = this;
     }
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.api;
+
+import me.pandamods.fallingtrees.config.CommonConfig;
+import me.pandamods.fallingtrees.config.FallingTreesConfig;
+import me.pandamods.fallingtrees.utils.scan.TreeScanSnapshot;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.item.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tree scans on a small worker pool against a {@link TreeScanSnapshot} of the chunk sections around the tree.
+ * <p>
+ * The block break that started the scan is cancelled, and the tree is felled on a later server tick once the scan is
+ * done. Before felling, every gathered block is compared with the live level. If anything changed, or the scan reached
+ * past the snapshot, the tree is gathered again on the server thread. Drops are rolled with the tool the player held
+ * when the block was broken.
+ */
+public class AsyncTreeScanner {
+	private static final List<ScanJob> PENDING = new ArrayList<>();
+	private static ThreadPoolExecutor executor = null;
+	private static int executorThreads = 0;
+	private static int executorQueueSize = 0;
+
+	public static boolean isEnabledFor(TreeType tree) {
+		return getConfig().enabled && tree.supportsAsyncScan();
+	}
+
+	public static int getPendingCount() {
+		return PENDING.size();
+	}
+
+	/**
+	 * Starts scanning the tree off-thread.
+	 *
+	 * @return false if the scan could not be queued, in which case the tree has to be handled synchronously
+	 */
+	public static boolean submit(ServerPlayer player, TreeType tree, BlockPos blockPos) {
+		ServerLevel level = player.serverLevel();
+		BlockPos origin = blockPos.immutable();
+		for (ScanJob job : PENDING) {
+			if (job.level == level && job.origin.equals(origin))
+				return true;
+		}
+
+		CommonConfig.AsyncScanning config = getConfig();
+		TreeScanSnapshot snapshot = TreeScanSnapshot.capture(level, origin,
+				config.snapshotChunkRadius, config.snapshotSectionsBelow, config.snapshotSectionsAbove);
+		ScanJob job = new ScanJob(level, player, tree, origin, snapshot, player.getMainHandItem().copy());
+		try {
+			job.future = getExecutor().submit(job::run);
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+		PENDING.add(job);
+		return true;
+	}
+
+	public static void tick(ServerLevel level) {
+		if (PENDING.isEmpty()) return;
+
+		List<ScanJob> finished = new ArrayList<>();
+		Iterator<ScanJob> iterator = PENDING.iterator();
+		while (iterator.hasNext()) {
+			ScanJob job = iterator.next();
+			if (job.level == level && job.future.isDone()) {
+				iterator.remove();
+				finished.add(job);
+			}
+		}
+		finished.forEach(AsyncTreeScanner::commit);
+	}
+
+	public static void clear() {
+		PENDING.forEach(job -> job.future.cancel(false));
+		PENDING.clear();
+	}
+
+	private static void commit(ScanJob job) {
+		ServerPlayer player = job.player;
+		if (player.isRemoved() || player.level() != job.level) return;
+		if (!job.tree.isTreeStem(job.level.getBlockState(job.origin))) return;
+
+		if (job.exception != null) {
+			TreeHandler.reportGatherException(job.exception, player);
+			TreeHandler.breakVanilla(player, job.origin);
+			return;
+		}
+
+		TreeData data = job.data;
+		if (data != null && (job.snapshot.isTruncated() || hasChanged(job.level, job.snapshot, data)))
+			data = TreeHandler.tryGatherTreeData(job.tree, job.origin, job.level, player, false);
+
+		if (data == null) {
+			TreeHandler.breakVanilla(player, job.origin);
+			return;
+		}
+		data.setDropTool(job.tool);
+		TreeHandler.fellTree(job.level, job.tree, job.origin, player, data);
+	}
+
+	/**
+	 * Compares the gathered blocks and the blocks next to their faces, which is where the tree could have grown since the
+	 * snapshot.
+	 */
+	private static boolean hasChanged(ServerLevel level, TreeScanSnapshot snapshot, TreeData data) {
+		LongOpenHashSet gathered = new LongOpenHashSet(data.blocks().size());
+		for (BlockPos pos : data.blocks()) {
+			if (level.getBlockState(pos) != snapshot.getBlockState(pos))
+				return true;
+			gathered.add(pos.asLong());
+		}
+
+		BlockPos.MutableBlockPos neighbour = new BlockPos.MutableBlockPos();
+		for (BlockPos pos : data.blocks()) {
+			for (Direction direction : Direction.values()) {
+				neighbour.setWithOffset(pos, direction);
+				if (gathered.add(neighbour.asLong()) && level.getBlockState(neighbour) != snapshot.getBlockState(neighbour))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the worker pool, rebuilding it when the thread count or queue size in the config changed. Scans already
+	 * running on the old pool still finish.
+	 */
+	private static synchronized ThreadPoolExecutor getExecutor() {
+		CommonConfig.AsyncScanning config = getConfig();
+		int threads = Math.max(1, config.workerThreads);
+		int queueSize = Math.max(1, config.maxQueuedScans);
+		if (executor != null && (executorThreads != threads || executorQueueSize != queueSize)) {
+			executor.shutdown();
+			executor = null;
+		}
+
+		if (executor == null) {
+			AtomicInteger threadCount = new AtomicInteger();
+			executorThreads = threads;
+			executorQueueSize = queueSize;
+			executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<>(queueSize), runnable -> {
+				Thread thread = new Thread(runnable, "FallingTrees-Scan-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	private static CommonConfig.AsyncScanning getConfig() {
+		return FallingTreesConfig.getCommonConfig().asyncScanning;
+	}
+
+	private static final class ScanJob {
+		private final ServerLevel level;
+		private final ServerPlayer player;
+		private final TreeType tree;
+		private final BlockPos origin;
+		private final TreeScanSnapshot snapshot;
+		private final ItemStack tool;
+		private Future<?> future;
+		private TreeData data;
+		private Exception exception;
+
+		private ScanJob(ServerLevel level, ServerPlayer player, TreeType tree, BlockPos origin, TreeScanSnapshot snapshot,
+						ItemStack tool) {
+			this.level = level;
+			this.player = player;
+			this.tree = tree;
+			this.origin = origin;
+			this.snapshot = snapshot;
+			this.tool = tool;
+		}
+
+		private void run() {
+			try {
+				data = TreeHandler.gatherTreeData(tree, origin, snapshot, player, true);
+			} catch (Exception e) {
+				exception = e;
+			}
+		}
+	}
+}
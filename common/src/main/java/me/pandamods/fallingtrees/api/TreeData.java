@@ -13,11 +13,31 @@
 package me.pandamods.fallingtrees.api;
 
 import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.stats.Stat;
+import net.minecraft.stats.Stats;
+import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
 
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+/**
+ * The result of gathering a tree.
+ * <p>
+ * Block drops and mined block stats added through {@link Builder#addBlockDrop} and {@link Builder#addMinedBlock} are
+ * only resolved the first time {@link #drops()} or {@link #awardedStats()} is read, which has to happen on the server
+ * thread. This lets the scan itself run off-thread.
+ * <p>
+ * Tree types can also defer part of the tree through {@link Builder#setRemainder}. The remainder is gathered the first
+ * time the blocks, drops or stats are read, so measuring a tree for its mining speed does not pay for the rest.
+ * <p>
+ * Drops of built data are merged by item and components into as few stacks as possible.
+ */
 public record TreeData(
 		List<BlockPos> blocks,
 		List<ItemStack> drops,
@@ -29,16 +49,64 @@ public record TreeData(
 	public static Builder builder() {
 		return new Builder();
 	}
-	
+
+	/**
+	 * Merges stacks of the same item and components into as few max-size stacks as possible.
+	 */
+	static List<ItemStack> mergeStacks(List<ItemStack> stacks) {
+		List<ItemStack> merged = new ArrayList<>();
+		for (ItemStack stack : stacks) {
+			if (stack.isEmpty()) continue;
+
+			ItemStack remaining = stack.copy();
+			for (ItemStack target : merged) {
+				int space = target.getMaxStackSize() - target.getCount();
+				if (space <= 0 || !ItemStack.isSameItemSameComponents(target, remaining))
+					continue;
+
+				int moved = Math.min(space, remaining.getCount());
+				target.grow(moved);
+				remaining.shrink(moved);
+				if (remaining.isEmpty())
+					break;
+			}
+			if (!remaining.isEmpty())
+				merged.add(remaining);
+		}
+		return merged;
+	}
+
+	/**
+	 * Sets the tool block drops are rolled with, which is the player's main hand item when the drops are first read
+	 * otherwise. It has to be set before then to take effect.
+	 */
+	void setDropTool(ItemStack tool) {
+		if (drops instanceof LazyList<?> list && list.pending != null)
+			list.pending.setDropTool(tool);
+	}
+
+	/**
+	 * @return true if part of the tree has been deferred and not gathered yet
+	 */
+	public boolean hasPendingRemainder() {
+		return blocks instanceof LazyList<?> list && list.pending != null && list.pending.remainderSupplier != null;
+	}
+
 	public static class Builder {
 		private final List<BlockPos> blocks = new ArrayList<>();
 		private final List<BlockPos> viewBlocks = Collections.unmodifiableList(blocks);
 		private final List<ItemStack> drops = new ArrayList<>();
 		private final List<ItemStack> viewDrops = Collections.unmodifiableList(drops);
 		private final Map<Stat<?>, Integer> awardedStats = new HashMap<>();
+		private final Map<Block, Integer> minedBlocks = new HashMap<>();
+		private Level dropLevel = null;
+		private Player dropPlayer = null;
+		private final List<BlockPos> dropPositions = new ArrayList<>();
+		private final List<BlockState> dropStates = new ArrayList<>();
 		private int toolDamage = 0;
 		private MiningSpeedModifier miningSpeedModifier = originalMiningSpeed -> originalMiningSpeed;
 		private FoodExhaustionModifier foodExhaustionModifier = originalExhaustion -> originalExhaustion;
+		private Supplier<TreeData> remainder = null;
 
 		private Builder() {}
 
@@ -52,12 +120,12 @@ public record TreeData(
 			this.blocks.addAll(Arrays.asList(otherBlocks));
 			return this;
 		}
-		
+
 		public Builder addBlocks(Collection<BlockPos> blocks) {
 			this.blocks.addAll(blocks);
 			return this;
 		}
-		
+
 		public Builder addDrop(ItemStack drop) {
 			this.drops.add(drop);
 			return this;
@@ -68,16 +136,34 @@ public record TreeData(
 			this.drops.addAll(Arrays.asList(otherDrops));
 			return this;
 		}
-		
+
 		public Builder addDrops(Collection<ItemStack> drops) {
 			this.drops.addAll(drops);
 			return this;
 		}
 
+		/**
+		 * Sets the level and player block drops are rolled with. Drops are skipped if the level is not a server level.
+		 */
+		public Builder setDropContext(Level level, Player player) {
+			this.dropLevel = level;
+			this.dropPlayer = player;
+			return this;
+		}
+
+		/**
+		 * Adds the loot of a block, it is rolled for the block state as it was when the tree was gathered.
+		 */
+		public Builder addBlockDrop(BlockPos blockPos, BlockState blockState) {
+			this.dropPositions.add(blockPos);
+			this.dropStates.add(blockState);
+			return this;
+		}
+
 		public Builder addAwardedStat(Stat<?> stat) {
 			return this.addAwardedStat(stat, 1);
 		}
-		
+
 		public Builder addAwardedStat(Stat<?> stat, int amount) {
 			this.awardedStats.compute(stat, (stat1, oldAmount) -> oldAmount == null ? amount : oldAmount + amount);
 			return this;
@@ -93,6 +179,14 @@ public record TreeData(
 			return this;
 		}
 
+		/**
+		 * Awards the block mined stat of the given block once.
+		 */
+		public Builder addMinedBlock(Block block) {
+			this.minedBlocks.merge(block, 1, Integer::sum);
+			return this;
+		}
+
 		public Builder setToolDamage(int toolDamage) {
 			this.toolDamage = toolDamage;
 			return this;
@@ -108,11 +202,33 @@ public record TreeData(
 			return this;
 		}
 
+		/**
+		 * Defers part of the tree. The supplier runs at most once, the first time the blocks, drops or stats of the built
+		 * data are read, and the blocks, drops and stats of the data it returns are added to them. The modifiers and tool
+		 * damage of the returned data are ignored.
+		 */
+		public Builder setRemainder(Supplier<TreeData> remainder) {
+			this.remainder = remainder;
+			return this;
+		}
+
 		public TreeData build() {
-			return new TreeData(
+			PendingDrops pendingDrops = null;
+			if (dropLevel instanceof ServerLevel serverLevel && !dropPositions.isEmpty())
+				pendingDrops = new PendingDrops(serverLevel, dropPlayer, List.copyOf(dropPositions), List.copyOf(dropStates));
+
+			Pending pending = new Pending(
 					viewBlocks,
 					viewDrops,
 					awardedStats.entrySet().stream().map(entry -> new AwardedStat(entry.getKey(), entry.getValue())).toList(),
+					pendingDrops,
+					minedBlocks.isEmpty() ? Map.of() : new HashMap<>(minedBlocks),
+					remainder
+			);
+			return new TreeData(
+					new LazyList<>(pending, Pending::blocks),
+					new LazyList<>(pending, Pending::drops),
+					new LazyList<>(pending, Pending::awardedStats),
 					toolDamage,
 					miningSpeedModifier,
 					foodExhaustionModifier
@@ -120,6 +236,128 @@ public record TreeData(
 		}
 	}
 
+	/**
+	 * The parts of built tree data that are resolved when first read. Every list of the data drops its reference once it
+	 * has been resolved, so the remainder supplier, and whatever scan view it captured, does not outlive the felling.
+	 */
+	private static final class Pending {
+		private List<BlockPos> blocks;
+		private List<ItemStack> drops;
+		private List<AwardedStat> awardedStats;
+		private PendingDrops pendingDrops;
+		private Map<Block, Integer> minedBlocks;
+		private Supplier<TreeData> remainderSupplier;
+		private TreeData remainder = null;
+		private ItemStack dropTool = null;
+
+		private Pending(List<BlockPos> blocks, List<ItemStack> drops, List<AwardedStat> awardedStats,
+						PendingDrops pendingDrops, Map<Block, Integer> minedBlocks, Supplier<TreeData> remainderSupplier) {
+			this.blocks = blocks;
+			this.drops = drops;
+			this.awardedStats = awardedStats;
+			this.pendingDrops = pendingDrops;
+			this.minedBlocks = minedBlocks;
+			this.remainderSupplier = remainderSupplier;
+		}
+
+		private List<BlockPos> blocks() {
+			gatherRemainder();
+			return blocks;
+		}
+
+		private List<ItemStack> drops() {
+			gatherRemainder();
+			List<ItemStack> resolved = new ArrayList<>(drops);
+			if (pendingDrops != null)
+				pendingDrops.roll(resolved, dropTool);
+			if (remainder != null)
+				resolved.addAll(remainder.drops());
+			pendingDrops = null;
+			return Collections.unmodifiableList(mergeStacks(resolved));
+		}
+
+		private List<AwardedStat> awardedStats() {
+			gatherRemainder();
+			if (minedBlocks.isEmpty() && remainder == null)
+				return awardedStats;
+
+			Map<Stat<?>, Integer> stats = new LinkedHashMap<>();
+			awardedStats.forEach(awardedStat -> stats.merge(awardedStat.stat(), awardedStat.amount(), Integer::sum));
+			minedBlocks.forEach((block, amount) -> stats.merge(Stats.BLOCK_MINED.get(block), amount, Integer::sum));
+			if (remainder != null)
+				remainder.awardedStats().forEach(awardedStat -> stats.merge(awardedStat.stat(), awardedStat.amount(), Integer::sum));
+			minedBlocks = Map.of();
+			return stats.entrySet().stream().map(entry -> new AwardedStat(entry.getKey(), entry.getValue())).toList();
+		}
+
+		private void setDropTool(ItemStack tool) {
+			this.dropTool = tool;
+			if (remainder != null)
+				remainder.setDropTool(tool);
+		}
+
+		private void gatherRemainder() {
+			if (remainderSupplier == null) return;
+			Supplier<TreeData> supplier = remainderSupplier;
+			remainderSupplier = null;
+
+			remainder = supplier.get();
+			if (remainder == null)
+				return;
+			if (dropTool != null)
+				remainder.setDropTool(dropTool);
+			if (!remainder.blocks().isEmpty()) {
+				List<BlockPos> allBlocks = new ArrayList<>(blocks.size() + remainder.blocks().size());
+				allBlocks.addAll(blocks);
+				allBlocks.addAll(remainder.blocks());
+				blocks = Collections.unmodifiableList(allBlocks);
+			}
+		}
+	}
+
+	/**
+	 * A list that is resolved from its pending data the first time it is read.
+	 */
+	private static final class LazyList<T> extends AbstractList<T> implements RandomAccess {
+		private Pending pending;
+		private Function<Pending, List<T>> resolver;
+		private List<T> resolved = null;
+
+		private LazyList(Pending pending, Function<Pending, List<T>> resolver) {
+			this.pending = pending;
+			this.resolver = resolver;
+		}
+
+		private List<T> resolve() {
+			if (resolved == null) {
+				resolved = resolver.apply(pending);
+				pending = null;
+				resolver = null;
+			}
+			return resolved;
+		}
+
+		@Override
+		public T get(int index) {
+			return resolve().get(index);
+		}
+
+		@Override
+		public int size() {
+			return resolve().size();
+		}
+	}
+
+	private record PendingDrops(ServerLevel level, Player player, List<BlockPos> positions, List<BlockState> states) {
+		void roll(List<ItemStack> drops, ItemStack tool) {
+			if (tool == null)
+				tool = player != null ? player.getMainHandItem() : ItemStack.EMPTY;
+			for (int i = 0; i < positions.size(); i++) {
+				drops.addAll(Block.getDrops(states.get(i), level, positions.get(i), null, player, tool));
+			}
+		}
+	}
+
 	public interface MiningSpeedModifier {
 		float getMiningSpeed(float originalMiningSpeed);
 	}
@@ -127,6 +365,6 @@ public record TreeData(
 	public interface FoodExhaustionModifier {
 		float getExhaustion(float originalExhaustion);
 	}
-	
+
 	public record AwardedStat(Stat<?> stat, int amount) {}
 }
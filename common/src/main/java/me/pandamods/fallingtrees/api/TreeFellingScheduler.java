@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.api;
+
+import me.pandamods.fallingtrees.config.CommonConfig;
+import me.pandamods.fallingtrees.config.FallingTreesConfig;
+import net.minecraft.core.BlockPos;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+
+import java.util.*;
+
+/**
+ * Limits how much tree felling the server starts per tick.
+ * <p>
+ * Every server tick has a budget of felled blocks shared by all players, and each player has a rate of trees per
+ * second. A tree is only admitted while the budget is not used up, the last admitted tree of a tick may overshoot it.
+ * Trees that do not fit are handled according to {@code fellingLimits.overloadBehavior}: queued for a later tick,
+ * broken as a single block, or rejected. Queued trees are admitted before new ones, taking one tree per player in turn,
+ * and are dropped if the player is out of reach of the block by then. A limit of 0 disables it.
+ */
+public class TreeFellingScheduler {
+	private static final Map<UUID, ArrayDeque<Request>> QUEUES = new LinkedHashMap<>();
+	private static final Map<UUID, RateLimit> RATE_LIMITS = new HashMap<>();
+	private static int usedBlocks = 0;
+	private static int currentTick = 0;
+
+	private static int queuedCount = 0;
+	private static long admittedFromQueue = 0;
+	private static long totalWaitTicks = 0;
+	private static int maxWaitTicks = 0;
+	private static long rejectedCount = 0;
+
+	public enum Admission {
+		/** The tree can be felled right away. */
+		ADMITTED,
+		/** The tree will be felled on a later tick, the block break has to be cancelled. */
+		QUEUED,
+		/** The block has to be broken the vanilla way. */
+		VANILLA,
+		/** The block break has to be cancelled. */
+		REJECTED
+	}
+
+	public static Admission admit(ServerPlayer player, TreeType tree, BlockPos blockPos) {
+		CommonConfig.FellingLimits config = getConfig();
+		currentTick = player.getServer().getTickCount();
+		if (queuedCount == 0 && hasBudget(config) && takeRate(player.getUUID(), config))
+			return Admission.ADMITTED;
+
+		switch (config.overloadBehavior) {
+			case QUEUE -> {
+				ArrayDeque<Request> queue = QUEUES.computeIfAbsent(player.getUUID(), uuid -> new ArrayDeque<>());
+				for (Request request : queue) {
+					if (request.blockPos.equals(blockPos) && request.level == player.serverLevel())
+						return Admission.QUEUED;
+				}
+				if (queue.size() < Math.max(1, config.maxQueuedPerPlayer)) {
+					queue.add(new Request(player, player.serverLevel(), tree, blockPos.immutable(), currentTick));
+					queuedCount++;
+					return Admission.QUEUED;
+				}
+			}
+			case VANILLA -> {
+				return Admission.VANILLA;
+			}
+		}
+
+		rejectedCount++;
+		player.displayClientMessage(Component.translatable("text.fallingtrees.tree_handler.overloaded"), true);
+		return Admission.REJECTED;
+	}
+
+	/**
+	 * Counts blocks felled this tick towards the budget.
+	 */
+	public static void charge(int blocks) {
+		usedBlocks += blocks;
+	}
+
+	/**
+	 * Starts a new tick budget and admits as many queued trees as it allows.
+	 */
+	public static void tick(MinecraftServer server) {
+		usedBlocks = 0;
+		currentTick = server.getTickCount();
+		if (currentTick % 1200 == 0)
+			RATE_LIMITS.values().removeIf(rateLimit -> rateLimit.isFull(currentTick, getConfig()));
+		if (queuedCount == 0) return;
+
+		CommonConfig.FellingLimits config = getConfig();
+		boolean progressed = true;
+		while (progressed && queuedCount > 0 && hasBudget(config)) {
+			progressed = false;
+			// Players that got a tree move to the back, so the next round starts with whoever is waiting longest
+			List<Map.Entry<UUID, ArrayDeque<Request>>> served = new ArrayList<>();
+			Iterator<Map.Entry<UUID, ArrayDeque<Request>>> iterator = QUEUES.entrySet().iterator();
+			while (iterator.hasNext() && hasBudget(config)) {
+				Map.Entry<UUID, ArrayDeque<Request>> entry = iterator.next();
+				if (!takeRate(entry.getKey(), config))
+					continue;
+
+				Request request = entry.getValue().poll();
+				queuedCount--;
+				iterator.remove();
+				if (!entry.getValue().isEmpty())
+					served.add(entry);
+
+				int waited = currentTick - request.tick;
+				admittedFromQueue++;
+				totalWaitTicks += waited;
+				maxWaitTicks = Math.max(maxWaitTicks, waited);
+				run(request);
+				progressed = true;
+			}
+			served.forEach(entry -> QUEUES.put(entry.getKey(), entry.getValue()));
+		}
+	}
+
+	public static void clear() {
+		QUEUES.clear();
+		RATE_LIMITS.clear();
+		queuedCount = 0;
+		usedBlocks = 0;
+	}
+
+	public static int getQueueDepth() {
+		return queuedCount;
+	}
+
+	public static double getAverageWaitTicks() {
+		return admittedFromQueue == 0 ? 0 : (double) totalWaitTicks / admittedFromQueue;
+	}
+
+	public static int getMaxWaitTicks() {
+		return maxWaitTicks;
+	}
+
+	public static long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	private static void run(Request request) {
+		ServerPlayer player = request.player;
+		if (player.isRemoved() || player.level() != request.level) return;
+		if (!player.canInteractWithBlock(request.blockPos, 1)) return;
+		if (!request.tree.isTreeStem(request.level.getBlockState(request.blockPos))) return;
+
+		if (!TreeHandler.startFelling(request.level, request.tree, request.blockPos, player))
+			TreeHandler.breakVanilla(player, request.blockPos);
+	}
+
+	private static boolean hasBudget(CommonConfig.FellingLimits config) {
+		return config.maxBlocksPerTick <= 0 || usedBlocks < config.maxBlocksPerTick;
+	}
+
+	private static boolean takeRate(UUID player, CommonConfig.FellingLimits config) {
+		if (config.maxTreesPerPlayerPerSecond <= 0)
+			return true;
+		return RATE_LIMITS.computeIfAbsent(player, uuid -> new RateLimit(currentTick, config)).take(currentTick, config);
+	}
+
+	private static CommonConfig.FellingLimits getConfig() {
+		return FallingTreesConfig.getCommonConfig().fellingLimits;
+	}
+
+	private record Request(ServerPlayer player, ServerLevel level, TreeType tree, BlockPos blockPos, int tick) {}
+
+	/**
+	 * Token bucket refilled with the per-player rate every tick, holding at most one second worth of trees.
+	 */
+	private static final class RateLimit {
+		private double tokens;
+		private int lastTick;
+
+		private RateLimit(int tick, CommonConfig.FellingLimits config) {
+			this.tokens = capacity(config);
+			this.lastTick = tick;
+		}
+
+		private boolean take(int tick, CommonConfig.FellingLimits config) {
+			refill(tick, config);
+			if (tokens < 1)
+				return false;
+			tokens--;
+			return true;
+		}
+
+		private boolean isFull(int tick, CommonConfig.FellingLimits config) {
+			refill(tick, config);
+			return tokens >= capacity(config);
+		}
+
+		private void refill(int tick, CommonConfig.FellingLimits config) {
+			tokens = Math.min(capacity(config), tokens + (tick - lastTick) * config.maxTreesPerPlayerPerSecond / 20);
+			lastTick = tick;
+		}
+
+		private static double capacity(CommonConfig.FellingLimits config) {
+			return Math.max(1, config.maxTreesPerPlayerPerSecond);
+		}
+	}
+}
@@ -1,22 +1,38 @@
 package me.pandamods.fallingtrees.api;
 
 import com.mojang.logging.LogUtils;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import me.pandamods.fallingtrees.config.ClientConfig;
 import me.pandamods.fallingtrees.config.FallingTreesConfig;
 import me.pandamods.fallingtrees.entity.TreeEntity;
 import me.pandamods.fallingtrees.exceptions.TreeException;
 import me.pandamods.fallingtrees.registry.EntityRegistry;
 import me.pandamods.fallingtrees.registry.TreeRegistry;
+import me.pandamods.fallingtrees.utils.metrics.TreeFellEvent;
+import me.pandamods.fallingtrees.utils.metrics.TreeMetrics;
+import me.pandamods.fallingtrees.utils.metrics.TreeScanEvent;
+import me.pandamods.fallingtrees.utils.scan.TreeScanView;
+import me.pandamods.fallingtrees.world.FallingTreeManager;
+import me.pandamods.fallingtrees.world.OrphanedLeafSweep;
+import me.pandamods.fallingtrees.world.TreeBlockRemover;
+import me.pandamods.fallingtrees.world.TreeRemovalScheduler;
 import net.minecraft.core.BlockPos;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.chat.Style;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.stats.Stats;
+import net.minecraft.world.entity.Entity;
 import net.minecraft.world.entity.EquipmentSlot;
 import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.BlockGetter;
+import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.state.BlockState;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
 import java.awt.*;
@@ -28,22 +44,155 @@ public class TreeHandler {
 	private static final Logger LOGGER = LogUtils.getLogger();
 
 	public  static final Map<UUID, TreeSpeed> TREE_SPEED_CACHES = new ConcurrentHashMap<>();
+	private static boolean breakingVanilla = false;
 	
 	public static boolean destroyTree(Level level, BlockPos blockPos, Player player) {
 		if (level.isClientSide()) return false;
 		BlockState blockState = level.getBlockState(blockPos);
 		
-		TreeType tree = TreeRegistry.getTree(blockState);
+		TreeType tree = TreeRegistry.getTree(level, blockState);
 		if (tree == null) return false;
 
+		TreeFellEvent event = new TreeFellEvent();
+		event.begin();
+		long start = System.nanoTime();
+		boolean felled = false;
+		try {
+			if (player instanceof ServerPlayer serverPlayer) {
+				// Only something that measures as a tree uses up the player's felling rate
+				if (!isMeasuredTree(serverPlayer, tree, blockPos))
+					return false;
+				TreeFellingScheduler.Admission admission = TreeFellingScheduler.admit(serverPlayer, tree, blockPos);
+				if (admission != TreeFellingScheduler.Admission.ADMITTED)
+					return admission != TreeFellingScheduler.Admission.VANILLA;
+			}
+			felled = startFelling(level, tree, blockPos, player);
+			return felled;
+		} finally {
+			TreeMetrics.DESTROY_TREE.record(System.nanoTime() - start);
+			event.end();
+			if (event.shouldCommit()) {
+				event.treeType = String.valueOf(TreeRegistry.getTreeLocation(tree));
+				event.felled = felled;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * @return true if the tree has a measurement, reusing the one from mining the block when there is one
+	 */
+	private static boolean isMeasuredTree(ServerPlayer player, TreeType tree, BlockPos blockPos) {
+		TreeSpeed speed = TREE_SPEED_CACHES.get(player.getUUID());
+		if (speed != null && speed.blockPos.equals(blockPos))
+			return true;
+		return tryMeasureTree(tree, blockPos, player.level(), player) != null;
+	}
+
+	/**
+	 * Gathers and fells a tree that has been admitted by the {@link TreeFellingScheduler}.
+	 *
+	 * @return false if there was no tree to fell
+	 */
+	static boolean startFelling(Level level, TreeType tree, BlockPos blockPos, Player player) {
+		if (player instanceof ServerPlayer serverPlayer && AsyncTreeScanner.isEnabledFor(tree) &&
+				AsyncTreeScanner.submit(serverPlayer, tree, blockPos))
+			return true;
+
 		TreeData data = tryGatherTreeData(tree, blockPos, level, player, false);
 		if (data == null) return false;
+		fellTree(level, tree, blockPos, player, data);
+		return true;
+	}
+
+	/**
+	 * Spawns the falling tree and removes its blocks from the level, using data that has already been gathered.
+	 */
+	public static void fellTree(Level level, TreeType tree, BlockPos blockPos, Player player, TreeData data) {
 		List<BlockPos> blocks = data.blocks();
+		List<BlockPos> removedBlocks = new ArrayList<>(blocks);
+		List<ItemStack> drops = new ArrayList<>(data.drops());
+		sweepOrphanedLeaves(level, player, removedBlocks, List.of(blocks), List.of(drops));
+
+		applyToPlayer(player, data);
+		// Clients that track the tree get it before the removal of its blocks, see CommonConfig.syncTreeShapeOnly
+		spawnFallingTree(level, tree, blockPos, player, blocks, drops);
+		removeTreeBlocks(level, removedBlocks);
+	}
+
+	/**
+	 * Fells every tree reached from the given origins at once, for commands and machines that clear whole areas.
+	 * <p>
+	 * All trees are gathered through one shared {@link TreeScanView}. Blocks claimed by an earlier tree look like air to
+	 * the trees after it, so origins within the same tree and overlapping canopies are only felled once. The blocks of
+	 * all trees are removed in a single pass. Unlike {@link #destroyTree}, this does not go through the
+	 * {@link TreeFellingScheduler} and does not need a player.
+	 *
+	 * @param source the entity felling the trees, it only counts as the chopping player if it is one
+	 * @param mergeEntities whether trees of the same type whose origins share a chunk fall as one entity
+	 * @return the number of trees that were felled
+	 */
+	public static int destroyTrees(Level level, Collection<BlockPos> origins, @Nullable Entity source, boolean mergeEntities) {
+		if (!(level instanceof ServerLevel)) return 0;
+		Player player = source instanceof Player sourcePlayer ? sourcePlayer : null;
+
+		BatchScanView view = new BatchScanView(level);
+		Map<Object, FelledGroup> groups = new LinkedHashMap<>();
+		List<BlockPos> allBlocks = new ArrayList<>();
+		int felled = 0;
+		for (BlockPos origin : origins) {
+			TreeType tree = TreeRegistry.getTree(level, view.getBlockState(origin));
+			if (tree == null) continue;
+
+			TreeData data = tryGatherTreeData(tree, origin, view, player, false);
+			if (data == null || !view.claim(data.blocks())) continue;
+
+			felled++;
+			allBlocks.addAll(data.blocks());
+
+			// Adding the data rolls its drops, which has to happen before the tool is damaged
+			Object key = mergeEntities ? List.of(tree, ChunkPos.asLong(origin)) : felled;
+			groups.computeIfAbsent(key, k -> new FelledGroup(tree, origin.immutable())).add(data);
+			if (player != null)
+				applyToPlayer(player, data);
+		}
+
+		if (!groups.isEmpty()) {
+			sweepOrphanedLeaves(level, player, allBlocks,
+					groups.values().stream().map(group -> group.blocks).toList(),
+					groups.values().stream().map(group -> group.drops).toList());
+		}
+
+		groups.values().forEach(group ->
+				spawnFallingTree(level, group.tree, group.origin, source, group.blocks, group.drops));
+		removeTreeBlocks(level, allBlocks);
+		return felled;
+	}
+
+	public static int destroyTrees(Level level, Collection<BlockPos> origins, @Nullable Entity source) {
+		return destroyTrees(level, origins, source, false);
+	}
+
+	/**
+	 * Spawns the falling tree as an entity or hands it to the {@link FallingTreeManager}. It reads the block states from
+	 * the level so it has to happen before they are removed.
+	 */
+	private static void spawnFallingTree(Level level, TreeType tree, BlockPos blockPos, @Nullable Entity source,
+										 List<BlockPos> blocks, List<ItemStack> drops) {
+		TreeMetrics.DROP_STACKS.add(drops.size());
+		drops.forEach(drop -> TreeMetrics.DROP_ITEMS.add(drop.getCount()));
+		if (level instanceof ServerLevel serverLevel && FallingTreeManager.isEnabled()) {
+			FallingTreeManager.add(serverLevel, tree, blockPos, source, blocks, drops);
+			return;
+		}
 
 		TreeEntity entity = new TreeEntity(EntityRegistry.TREE.get(), level);
 		entity.setPos(blockPos.getX() + 0.5, blockPos.getY(), blockPos.getZ() + 0.5);
-		entity.setData(player, tree, blockPos, blocks, data.drops());
+		entity.setData(source, tree, blockPos, blocks, drops);
+		level.addFreshEntity(entity);
+	}
 
+	private static void applyToPlayer(Player player, TreeData data) {
 		player.causeFoodExhaustion(
 				FallingTreesConfig.getCommonConfig().disableExtraFoodExhaustion ? 1 :
 						data.foodExhaustionModifier().getExhaustion(0.005F)
@@ -57,53 +206,147 @@ public class TreeHandler {
 
 		player.awardStat(Stats.ITEM_USED.get(player.getMainHandItem().getItem()));
 		data.awardedStats().forEach(awardedStat -> player.awardStat(awardedStat.stat(), awardedStat.amount()));
+	}
 
-		Map<BlockPos, BlockState> blockStates = new HashMap<>();
-
-		// Silently remove all blocks
-		BlockState air = Blocks.AIR.defaultBlockState();
-		for (BlockPos pos : blocks) {
-			BlockState oldState = level.getBlockState(pos);
-			level.setBlock(pos, air, 16);
-			level.setBlocksDirty(pos, oldState, level.getBlockState(pos));
-			blockStates.put(pos, oldState);
-		}
+	/**
+	 * Adds the leaves that would be left without a log once the given blocks are removed, if enabled in the config. The
+	 * drops of each orphaned leaf go to the tree it was attached to, see {@link OrphanedLeafSweep#assignToTrees}.
+	 *
+	 * @param blocks all blocks that are about to be removed, the orphaned leaves are added to them
+	 * @param trees the blocks of each tree
+	 * @param drops the drops of each tree, the drops of its orphaned leaves are merged into them
+	 */
+	private static void sweepOrphanedLeaves(Level level, @Nullable Player player, List<BlockPos> blocks,
+											List<? extends Collection<BlockPos>> trees, List<List<ItemStack>> drops) {
+		if (!(level instanceof ServerLevel serverLevel) || !FallingTreesConfig.getCommonConfig().sweepOrphanedLeaves)
+			return;
 
-		// Update neighbors around removed blocks
-		blockStates.forEach((pos, oldState) -> {
-			BlockState newState = level.getBlockState(pos);
+		List<BlockPos> orphanedLeaves = OrphanedLeafSweep.findOrphanedLeaves(level, blocks);
+		if (orphanedLeaves.isEmpty())
+			return;
 
-			level.sendBlockUpdated(pos, oldState, newState, 3);
-			level.sendBlockUpdated(pos, oldState, newState, 3);
-			level.blockUpdated(pos, newState.getBlock());
+		List<List<BlockPos>> assigned = OrphanedLeafSweep.assignToTrees(trees, orphanedLeaves);
+		ItemStack tool = player != null ? player.getMainHandItem() : ItemStack.EMPTY;
+		for (int i = 0; i < assigned.size(); i++) {
+			if (assigned.get(i).isEmpty())
+				continue;
 
-			newState.updateIndirectNeighbourShapes(level, pos, 511);
-			oldState.updateNeighbourShapes(level, pos, 511);
-			oldState.updateIndirectNeighbourShapes(level, pos, 511);
+			List<ItemStack> treeDrops = drops.get(i);
+			for (BlockPos pos : assigned.get(i)) {
+				treeDrops.addAll(Block.getDrops(level.getBlockState(pos), serverLevel, pos, null, player, tool));
+			}
+			List<ItemStack> merged = TreeData.mergeStacks(treeDrops);
+			treeDrops.clear();
+			treeDrops.addAll(merged);
+		}
+		blocks.addAll(orphanedLeaves);
+	}
 
-			level.onBlockStateChange(pos, oldState, newState);
-		});
-		level.addFreshEntity(entity);
-		return true;
+	private static void removeTreeBlocks(Level level, List<BlockPos> blocks) {
+		if (level instanceof ServerLevel serverLevel) {
+			// Managed falls have to reach clients before the removal packets, like tree entities do
+			FallingTreeManager.sendPending(serverLevel);
+			TreeFellingScheduler.charge(blocks.size());
+			if (TreeRemovalScheduler.shouldSchedule(blocks))
+				TreeRemovalScheduler.schedule(serverLevel, blocks);
+			else
+				TreeBlockRemover.removeBlocks(serverLevel, blocks);
+		} else {
+			BlockState air = Blocks.AIR.defaultBlockState();
+			for (BlockPos pos : blocks) {
+				level.setBlock(pos, air, 3);
+			}
+		}
 	}
 
 	public static TreeData tryGatherTreeData(TreeType treeType, BlockPos blockPos, Level level, Player player, boolean ignoreExceptions) {
+		return tryGatherTreeData(treeType, blockPos, new TreeScanView(level), player, ignoreExceptions);
+	}
+
+	public static TreeData tryGatherTreeData(TreeType treeType, BlockPos blockPos, TreeScanView view, Player player, boolean ignoreExceptions) {
 		try {
-			return treeType.gatherTreeData(blockPos, level, player);
-		} catch (TreeException e) {
-			if (!ignoreExceptions) {
-				LOGGER.warn(e.getMessage());
-			}
+			return gatherTreeData(treeType, blockPos, view, player, false);
 		} catch (Exception e) {
 			if (!ignoreExceptions) {
-				LOGGER.error("An error occurred when trying to gather tree data", e);
-				player.displayClientMessage(Component.literal("Error: " + e).withStyle(Style.EMPTY.withColor(Color.red.getRGB())), false);
-				player.displayClientMessage(Component.translatable("text.fallingtrees.tree_handler.exception.1").withStyle(Style.EMPTY.withColor(Color.red.getRGB())), false);
-				player.displayClientMessage(Component.translatable("text.fallingtrees.tree_handler.exception.2").withStyle(Style.EMPTY.withColor(Color.red.getRGB())), false);
+				reportGatherException(e, player);
 			}
 		}
 		return null;
 	}
+
+	/**
+	 * Gathers the tree while recording its scan metrics, for both synchronous and off-thread scans.
+	 */
+	static TreeData gatherTreeData(TreeType treeType, BlockPos blockPos, TreeScanView view, Player player, boolean async) {
+		TreeScanEvent event = new TreeScanEvent();
+		event.begin();
+		long visited = TreeMetrics.getVisitedOnThread();
+		long start = System.nanoTime();
+		TreeData data = null;
+		try {
+			data = treeType.gatherTreeData(blockPos, view, player);
+			// Off-thread scans get the tool captured when they were submitted instead
+			if (!async && data != null && player != null)
+				data.setDropTool(player.getMainHandItem().copy());
+			return data;
+		} finally {
+			TreeMetrics.SCAN.record(System.nanoTime() - start);
+			visited = TreeMetrics.getVisitedOnThread() - visited;
+			int collected = data != null && !data.hasPendingRemainder() ? data.blocks().size() : 0;
+			TreeMetrics.BLOCKS_COLLECTED.add(collected);
+			event.end();
+			if (event.shouldCommit()) {
+				event.treeType = String.valueOf(TreeRegistry.getTreeLocation(treeType));
+				event.blocksVisited = visited;
+				event.blocksCollected = collected;
+				event.async = async;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * Measures the tree for its modifiers, see {@link TreeType#measureTree}. Exceptions are ignored.
+	 */
+	public static TreeData tryMeasureTree(TreeType treeType, BlockPos blockPos, Level level, Player player) {
+		try {
+			return treeType.measureTree(blockPos, level, player);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true while a block is being broken the vanilla way after its tree felling was deferred
+	 */
+	public static boolean isBreakingVanilla() {
+		return breakingVanilla;
+	}
+
+	/**
+	 * Breaks a single block the way vanilla would, for felling that was deferred and then found no tree to fell.
+	 */
+	static void breakVanilla(ServerPlayer player, BlockPos blockPos) {
+		breakingVanilla = true;
+		try {
+			player.gameMode.destroyBlock(blockPos);
+		} finally {
+			breakingVanilla = false;
+		}
+	}
+
+	static void reportGatherException(Exception exception, Player player) {
+		if (exception instanceof TreeException) {
+			LOGGER.warn(exception.getMessage());
+			return;
+		}
+
+		LOGGER.error("An error occurred when trying to gather tree data", exception);
+		if (player == null) return;
+		player.displayClientMessage(Component.literal("Error: " + exception).withStyle(Style.EMPTY.withColor(Color.red.getRGB())), false);
+		player.displayClientMessage(Component.translatable("text.fallingtrees.tree_handler.exception.1").withStyle(Style.EMPTY.withColor(Color.red.getRGB())), false);
+		player.displayClientMessage(Component.translatable("text.fallingtrees.tree_handler.exception.2").withStyle(Style.EMPTY.withColor(Color.red.getRGB())), false);
+	}
 	
 	public static boolean canPlayerChopTree(Player player) {
 		ClientConfig clientConfig = FallingTreesConfig.getClientConfig(player);
@@ -112,15 +355,24 @@ public class TreeHandler {
 	}
 	
 	public static Optional<Float> getMiningSpeed(Player player, BlockPos blockPos, float baseSpeed) {
+		// The client predicts mining speed as well, only the logical server counts towards the stats
+		boolean recordMetrics = !player.level().isClientSide();
 		TreeSpeed treeSpeed = TREE_SPEED_CACHES.compute(player.getUUID(), (uuid, speed) -> {
 			if (speed == null || !speed.isValid(blockPos, baseSpeed)) {
+				if (recordMetrics)
+					TreeMetrics.SPEED_CACHE_MISSES.increment();
 				BlockState blockState = player.level().getBlockState(blockPos);
-				TreeType tree = TreeRegistry.getTree(blockState);
+				TreeType tree = TreeRegistry.getTree(player.level(), blockState);
 				if (tree == null) return null;
-				TreeData data = tryGatherTreeData(tree, blockPos, player.level(), player, true);
+				long start = System.nanoTime();
+				TreeData data = tryMeasureTree(tree, blockPos, player.level(), player);
+				if (recordMetrics)
+					TreeMetrics.MINING_SPEED.record(System.nanoTime() - start);
 				if (data == null) return null;
 				return new TreeSpeed(baseSpeed, data.miningSpeedModifier().getMiningSpeed(baseSpeed), blockPos.immutable());
 			}
+			if (recordMetrics)
+				TreeMetrics.SPEED_CACHE_HITS.increment();
 			return speed;
 		});
 		return Optional.ofNullable(treeSpeed).map(TreeSpeed::getMiningSpeed);
@@ -145,4 +397,52 @@ public class TreeHandler {
 			return Objects.equals(this.blockPos, blockPos) && this.baseMiningSpeed == baseSpeed;
 		}
 	}
+
+	/**
+	 * Shared scan view of {@link #destroyTrees}, hiding the blocks of trees that have already been gathered.
+	 */
+	private static final class BatchScanView extends TreeScanView {
+		private static final BlockState AIR = Blocks.AIR.defaultBlockState();
+		private final LongOpenHashSet claimed = new LongOpenHashSet();
+
+		private BatchScanView(Level level) {
+			super(level);
+		}
+
+		@Override
+		public BlockState getBlockState(long pos) {
+			return claimed.contains(pos) ? AIR : super.getBlockState(pos);
+		}
+
+		/**
+		 * Claims the blocks of a tree, tree types that do not read through the view may still reach claimed blocks.
+		 *
+		 * @return false if any of the blocks was already claimed, in which case nothing is claimed
+		 */
+		private boolean claim(List<BlockPos> blocks) {
+			for (BlockPos pos : blocks) {
+				if (claimed.contains(pos.asLong()))
+					return false;
+			}
+			blocks.forEach(pos -> claimed.add(pos.asLong()));
+			return true;
+		}
+	}
+
+	private static final class FelledGroup {
+		private final TreeType tree;
+		private final BlockPos origin;
+		private final List<BlockPos> blocks = new ArrayList<>();
+		private final List<ItemStack> drops = new ArrayList<>();
+
+		private FelledGroup(TreeType tree, BlockPos origin) {
+			this.tree = tree;
+			this.origin = origin;
+		}
+
+		private void add(TreeData data) {
+			blocks.addAll(data.blocks());
+			drops.addAll(data.drops());
+		}
+	}
 }
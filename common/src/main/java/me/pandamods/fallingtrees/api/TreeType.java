@@ -13,6 +13,7 @@
 package me.pandamods.fallingtrees.api;
 
 import me.pandamods.fallingtrees.entity.TreeEntity;
+import me.pandamods.fallingtrees.utils.scan.TreeScanView;
 import net.minecraft.core.BlockPos;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.level.Level;
@@ -20,6 +21,42 @@ import net.minecraft.world.level.block.state.BlockState;
 
 public interface TreeType {
 	boolean isTreeStem(BlockState blockState);
+
+	/**
+	 * Gathers the tree at the given stem. The player is null when trees are felled through
+	 * {@link TreeHandler#destroyTrees} by something other than a player.
+	 */
 	TreeData gatherTreeData(BlockPos blockPos, Level level, Player player);
+
+	/**
+	 * Gathers the tree through a {@link TreeScanView}, which caches the chunk sections the scan touches.
+	 * Tree types that read many blocks should override this and read through the view.
+	 */
+	default TreeData gatherTreeData(BlockPos blockPos, TreeScanView view, Player player) {
+		return gatherTreeData(blockPos, view.getLevel(), player);
+	}
+
+	/**
+	 * Measures the tree for the dynamic mining speed, which is queried every tick while a player is mining a stem.
+	 * Only the modifiers of the returned data are read, so implementations can leave out everything else or defer it
+	 * through {@link TreeData.Builder#setRemainder}. Defaults to gathering the whole tree.
+	 */
+	default TreeData measureTree(BlockPos blockPos, Level level, Player player) {
+		return gatherTreeData(blockPos, level, player);
+	}
+
+	/**
+	 * Whether {@link #gatherTreeData(BlockPos, TreeScanView, Player)} may run off the server thread. Implementations
+	 * that return true must only read blocks through the view and add drops and stats through
+	 * {@link TreeData.Builder#addBlockDrop} and {@link TreeData.Builder#addMinedBlock}.
+	 */
+	default boolean supportsAsyncScan() {
+		return false;
+	}
+
+	/**
+	 * Called every tick of a falling tree, on both sides. Trees run by the
+	 * {@link me.pandamods.fallingtrees.world.FallingTreeManager} share one entity on the server, so it must not be kept.
+	 */
 	default void onTreeTick(TreeEntity entity) {}
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.client;
+
+import dev.architectury.networking.NetworkManager;
+import me.pandamods.fallingtrees.api.TreeType;
+import me.pandamods.fallingtrees.entity.TreeEntity;
+import me.pandamods.fallingtrees.network.FallingTreeBatchPayload;
+import me.pandamods.fallingtrees.registry.EntityRegistry;
+import me.pandamods.fallingtrees.registry.TreeRegistry;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.multiplayer.ClientLevel;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.entity.Entity;
+
+/**
+ * Plays the falls of the server's {@link me.pandamods.fallingtrees.world.FallingTreeManager} as client-only tree
+ * entities. They use negative ids so they never clash with entities sent by the server.
+ */
+@Environment(EnvType.CLIENT)
+public class ClientFallingTrees {
+	public static void onBatch(FallingTreeBatchPayload payload, NetworkManager.PacketContext context) {
+		context.queue(() -> {
+			ClientLevel level = Minecraft.getInstance().level;
+			if (level == null) return;
+
+			for (int id : payload.despawns()) {
+				level.removeEntity(toEntityId(id), Entity.RemovalReason.DISCARDED);
+			}
+
+			for (FallingTreeBatchPayload.Spawn spawn : payload.spawns()) {
+				TreeType tree = TreeRegistry.getTree(ResourceLocation.tryParse(spawn.treeType()));
+				if (tree == null) continue;
+
+				TreeEntity entity = new TreeEntity(EntityRegistry.TREE.get(), level);
+				entity.setId(toEntityId(spawn.id()));
+				entity.setManagedData(null, tree, spawn.origin(), spawn.direction(), spawn.blocks(), 0);
+				level.addEntity(entity);
+			}
+		});
+	}
+
+	private static int toEntityId(int id) {
+		return -id;
+	}
+}
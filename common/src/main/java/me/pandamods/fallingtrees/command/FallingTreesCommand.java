@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.command;
+
+import com.mojang.brigadier.CommandDispatcher;
+import me.pandamods.fallingtrees.FallingTrees;
+import me.pandamods.fallingtrees.api.AsyncTreeScanner;
+import me.pandamods.fallingtrees.api.TreeFellingScheduler;
+import me.pandamods.fallingtrees.registry.EntityRegistry;
+import me.pandamods.fallingtrees.utils.metrics.TreeMetrics;
+import me.pandamods.fallingtrees.utils.scan.TreeConnectivityIndex;
+import me.pandamods.fallingtrees.world.FallingTreeManager;
+import me.pandamods.fallingtrees.world.TreeDropSpawner;
+import me.pandamods.fallingtrees.world.TreeRemovalScheduler;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerLevel;
+
+import java.util.Locale;
+
+public class FallingTreesCommand {
+	public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
+		dispatcher.register(Commands.literal(FallingTrees.MOD_ID)
+				.requires(source -> source.hasPermission(2))
+				.then(Commands.literal("stats")
+						.executes(context -> showStats(context.getSource()))
+						.then(Commands.literal("reset")
+								.executes(context -> resetStats(context.getSource())))));
+	}
+
+	private static int showStats(CommandSourceStack source) {
+		int treeEntities = 0;
+		for (ServerLevel level : source.getServer().getAllLevels()) {
+			treeEntities += level.getEntities(EntityRegistry.TREE.get(), entity -> true).size();
+		}
+
+		send(source, "Falling Trees stats");
+		send(source, timer("Destroy tree", TreeMetrics.DESTROY_TREE));
+		send(source, timer("Scan", TreeMetrics.SCAN));
+		send(source, timer("Block removal", TreeMetrics.REMOVAL));
+		send(source, timer("Mining speed", TreeMetrics.MINING_SPEED));
+		send(source, timer("Tree entity tick", TreeMetrics.ENTITY_TICK));
+
+		long visited = TreeMetrics.BLOCKS_VISITED.sum();
+		long collected = TreeMetrics.BLOCKS_COLLECTED.sum();
+		send(source, format("Blocks: %d visited, %d collected (%.1f%%), %d removed", visited, collected,
+				visited == 0 ? 0 : collected * 100d / visited, TreeMetrics.BLOCKS_REMOVED.sum()));
+		send(source, format("Drops rolled: %d stacks, %d items", TreeMetrics.DROP_STACKS.sum(), TreeMetrics.DROP_ITEMS.sum()));
+		send(source, format("Caches: stem lookup %s, mining speed %s",
+				ratio(TreeMetrics.STEM_CACHE_HITS.sum(), TreeMetrics.STEM_CACHE_MISSES.sum()),
+				ratio(TreeMetrics.SPEED_CACHE_HITS.sum(), TreeMetrics.SPEED_CACHE_MISSES.sum())));
+		send(source, format("Skipped light checks: %d", TreeMetrics.AVOIDED_LIGHT_CHECKS.sum()));
+		send(source, format("Tree entities: %d active, %d managed falls, %d KiB of blocks synced", treeEntities,
+				FallingTreeManager.getActiveCount(), TreeMetrics.BYTES_SYNCED.sum() / 1024));
+		send(source, format("Felling queue: %d waiting, %.1f ticks average wait, %d max, %d rejected",
+				TreeFellingScheduler.getQueueDepth(), TreeFellingScheduler.getAverageWaitTicks(),
+				TreeFellingScheduler.getMaxWaitTicks(), TreeFellingScheduler.getRejectedCount()));
+		send(source, format("Pending: %d scans, %d blocks to remove, %d drops to spawn", AsyncTreeScanner.getPendingCount(),
+				TreeRemovalScheduler.getPendingCount(), TreeDropSpawner.getPendingCount()));
+		send(source, format("Connectivity index: %d blocks, ~%d KiB", TreeConnectivityIndex.getIndexedCount(),
+				TreeConnectivityIndex.estimateMemoryUsage() / 1024));
+		return 1;
+	}
+
+	private static int resetStats(CommandSourceStack source) {
+		TreeMetrics.reset();
+		send(source, "Falling Trees stats have been reset");
+		return 1;
+	}
+
+	private static String timer(String name, TreeMetrics.Timer timer) {
+		return format("%s: %d, avg %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms", name, timer.getCount(),
+				timer.getAverageMillis(), timer.getPercentileMillis(0.5), timer.getPercentileMillis(0.99), timer.getMaxMillis());
+	}
+
+	private static String ratio(long hits, long misses) {
+		long total = hits + misses;
+		return format("%d/%d hits (%.1f%%)", hits, total, total == 0 ? 0 : hits * 100d / total);
+	}
+
+	private static String format(String format, Object... args) {
+		return String.format(Locale.ROOT, format, args);
+	}
+
+	private static void send(CommandSourceStack source, String message) {
+		source.sendSuccess(() -> Component.literal(message), false);
+	}
+}
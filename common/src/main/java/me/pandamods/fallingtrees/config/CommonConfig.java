@@ -22,10 +22,19 @@ public class CommonConfig implements ConfigData {
 	public boolean disableCrouchMining = false;
 	public boolean disableExtraToolDamage = false;
 	public boolean disableExtraFoodExhaustion = false;
+	public boolean sweepOrphanedLeaves = false;
+	public boolean syncTreeShapeOnly = false;
+	public boolean kinematicFall = false;
+	public FallingTreeBackend fallingTreeBackend = FallingTreeBackend.ENTITY;
 
 	public float treeLifetimeLength = 4;
 
 	public DynamicMiningSpeed dynamicMiningSpeed = new DynamicMiningSpeed();
+	public AsyncScanning asyncScanning = new AsyncScanning();
+	public IncrementalRemoval incrementalRemoval = new IncrementalRemoval();
+	public Drops drops = new Drops();
+	public FellingLimits fellingLimits = new FellingLimits();
+	public EntityTracking entityTracking = new EntityTracking();
 	public TreeConfigs trees = new TreeConfigs();
 
 	public static class DynamicMiningSpeed {
@@ -33,4 +42,56 @@ public class CommonConfig implements ConfigData {
 		public float speedMultiplication = 0.5f;
 		public float maxSpeedMultiplication = 16f;
 	}
+
+	public static class AsyncScanning {
+		public boolean enabled = false;
+		public int workerThreads = 2;
+		public int maxQueuedScans = 64;
+		public int snapshotChunkRadius = 1;
+		public int snapshotSectionsBelow = 1;
+		public int snapshotSectionsAbove = 4;
+	}
+
+	// Off by default, scheduled blocks are hidden from clients but stay solid on the server until they are removed
+	public static class IncrementalRemoval {
+		public boolean enabled = false;
+		public int minBlockAmount = 1024;
+		public int tickBudgetMicros = 2000;
+	}
+
+	public static class Drops {
+		public DropSink sink = DropSink.WORLD;
+		public int maxItemEntitiesPerTick = 8;
+		public int containerSearchRadius = 4;
+	}
+
+	public enum DropSink {
+		WORLD,
+		INVENTORY,
+		CONTAINER
+	}
+
+	public static class FellingLimits {
+		public int maxBlocksPerTick = 4096;
+		public float maxTreesPerPlayerPerSecond = 4;
+		public int maxQueuedPerPlayer = 8;
+		public OverloadBehavior overloadBehavior = OverloadBehavior.QUEUE;
+	}
+
+	// Read once when the tree entity type is registered, changes need a restart
+	public static class EntityTracking {
+		public int clientTrackingRange = 5;
+		public int updateInterval = 10;
+	}
+
+	public enum OverloadBehavior {
+		QUEUE,
+		VANILLA,
+		REJECT
+	}
+
+	public enum FallingTreeBackend {
+		ENTITY,
+		MANAGER
+	}
 }
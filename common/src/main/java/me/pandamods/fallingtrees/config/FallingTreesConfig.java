@@ -13,6 +13,7 @@
 package me.pandamods.fallingtrees.config;
 
 import me.pandamods.fallingtrees.FallingTrees;
+import me.pandamods.fallingtrees.event.EventHandler;
 import dev.pandasystems.pandalib.config.PandaLibConfig;
 import dev.pandasystems.pandalib.config.holders.ClientConfigHolder;
 import dev.pandasystems.pandalib.config.holders.CommonConfigHolder;
@@ -22,6 +23,8 @@ public class FallingTreesConfig {
 	public final ClientConfigHolder<ClientConfig> clientConfigHolder = PandaLibConfig.registerClient(ClientConfig.class);
 	public final CommonConfigHolder<CommonConfig> commonConfigHolder = PandaLibConfig.registerCommon(CommonConfig.class);
 
+	private static volatile CommonConfig lastCommonConfig = null;
+
 	public static ClientConfig getClientConfig(Player player) {
 		ClientConfig config = FallingTrees.CONFIG.clientConfigHolder.getConfig(player);
 		return config != null ? config : FallingTrees.CONFIG.clientConfigHolder.get();
@@ -32,6 +35,20 @@ public class FallingTreesConfig {
 	}
 
 	public static CommonConfig getCommonConfig() {
-		return FallingTrees.CONFIG.commonConfigHolder.get();
+		CommonConfig config = FallingTrees.CONFIG.commonConfigHolder.get();
+		// Loading and syncing the config replace its instance
+		if (config != lastCommonConfig) {
+			lastCommonConfig = config;
+			EventHandler.onCommonConfigChanged();
+		}
+		return config;
+	}
+
+	/**
+	 * Drops everything compiled from the common config, like the tree filters. Has to be called after editing the
+	 * config in place, a config that was loaded or synced again is noticed on its own.
+	 */
+	public static void markCommonConfigChanged() {
+		EventHandler.onCommonConfigChanged();
 	}
 }
@@ -12,12 +12,18 @@
 
 package me.pandamods.fallingtrees.config.common.tree;
 
+import net.minecraft.core.Direction;
+import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.tags.BlockTags;
 import net.minecraft.tags.ItemTags;
+import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
 public class GenericTreeConfig extends TreeConfig {
 	public GenericTreeConfig() {
@@ -36,19 +42,138 @@ public class GenericTreeConfig extends TreeConfig {
 			new ArrayList<>(),
 			new ArrayList<>()
 	);
-//	public Filter adjacentBlockFilter = new Filter(
-//			new ArrayList<>(),
-//			List.of(
-//					Blocks.VINE.arch$registryName().toString(),
-//					Blocks.BEE_NEST.arch$registryName().toString(),
-//					Blocks.COCOA.arch$registryName().toString()
-//			),
-//			new ArrayList<>()
-//	);
+	public List<AttachmentRule> adjacentBlocks = new ArrayList<>(List.of(
+			new AttachmentRule(List.of(Blocks.VINE), List.of(), AttachmentRule.Propagation.DOWN),
+			new AttachmentRule(List.of(Blocks.COCOA), horizontalDirections(), AttachmentRule.Propagation.NONE),
+			new AttachmentRule(List.of(Blocks.BEE_NEST), List.of(), AttachmentRule.Propagation.NONE),
+			new AttachmentRule(List.of(Blocks.PALE_HANGING_MOSS), List.of(Direction.DOWN.getSerializedName()), AttachmentRule.Propagation.DOWN),
+			new AttachmentRule(List.of(Blocks.MANGROVE_PROPAGULE), List.of(Direction.DOWN.getSerializedName()), AttachmentRule.Propagation.NONE)
+	));
+
+	private transient CompiledAttachments compiledAttachments;
+
+	/**
+	 * @return the adjacent block rules compiled into a lookup by block state id
+	 */
+	public CompiledAttachments getAttachments() {
+		CompiledAttachments compiled = compiledAttachments;
+		if (compiled == null || compiled.generation != Filter.generation()) {
+			compiled = new CompiledAttachments(adjacentBlocks, Filter.generation());
+			compiledAttachments = compiled;
+		}
+		return compiled;
+	}
+
+	private static List<String> horizontalDirections() {
+		List<String> directions = new ArrayList<>();
+		for (Direction direction : Direction.Plane.HORIZONTAL) {
+			directions.add(direction.getSerializedName());
+		}
+		return directions;
+	}
+
+	/**
+	 * A block that falls together with the tree when it is attached to one of its logs or leaves.
+	 */
+	public static class AttachmentRule {
+		public Filter filter;
+		/**
+		 * Sides of a tree block the attachment may be on, for example "down" for blocks hanging below leaves.
+		 * Empty means any side.
+		 */
+		public List<String> directions;
+		public Propagation propagation;
+
+		public AttachmentRule(Filter filter, List<String> directions, Propagation propagation) {
+			this.filter = filter;
+			this.directions = directions;
+			this.propagation = propagation;
+		}
+
+		public AttachmentRule(List<Block> blocks, List<String> directions, Propagation propagation) {
+			this(new Filter(new ArrayList<>(), blocks.stream().map(block -> BuiltInRegistries.BLOCK.getKey(block).toString()).collect(Collectors.toCollection(ArrayList::new)), new ArrayList<>()),
+					new ArrayList<>(directions), propagation);
+		}
+
+		public enum Propagation {
+			/** Only the block touching the tree is attached. */
+			NONE,
+			/** Blocks of the same rule hanging below an attached block are attached too, like vines. */
+			DOWN,
+			/** Every block of the same rule connected to an attached block is attached too. */
+			CONNECTED
+		}
+	}
+
+	public static final class CompiledAttachments {
+		private final int generation;
+		private final int[] ruleByState;
+		private final int[] directionMasks;
+		private final AttachmentRule.Propagation[] propagations;
+
+		private CompiledAttachments(List<AttachmentRule> rules, int generation) {
+			this.generation = generation;
+			this.ruleByState = new int[Block.BLOCK_STATE_REGISTRY.size()];
+			this.directionMasks = new int[rules.size()];
+			this.propagations = new AttachmentRule.Propagation[rules.size()];
+			Arrays.fill(ruleByState, -1);
+
+			for (int rule = rules.size() - 1; rule >= 0; rule--) {
+				AttachmentRule attachmentRule = rules.get(rule);
+				propagations[rule] = attachmentRule.propagation != null ? attachmentRule.propagation : AttachmentRule.Propagation.NONE;
+				directionMasks[rule] = directionMask(attachmentRule.directions);
+
+				if (attachmentRule.filter == null) continue;
+				for (int id = 0; id < ruleByState.length; id++) {
+					BlockState blockState = Block.stateById(id);
+					if (attachmentRule.filter.isValid(blockState))
+						ruleByState[id] = rule;
+				}
+			}
+		}
+
+		private static int directionMask(List<String> directions) {
+			if (directions == null || directions.isEmpty())
+				return (1 << 6) - 1;
+
+			int mask = 0;
+			for (String name : directions) {
+				Direction direction = Direction.byName(name);
+				if (direction != null)
+					mask |= 1 << direction.get3DDataValue();
+			}
+			return mask;
+		}
+
+		public boolean isEmpty() {
+			return propagations.length == 0;
+		}
+
+		/**
+		 * @return the index of the first rule matching the block state, or -1 if none does
+		 */
+		public int getRule(BlockState blockState) {
+			int id = Block.getId(blockState);
+			return id >= 0 && id < ruleByState.length ? ruleByState[id] : -1;
+		}
+
+		/**
+		 * @return whether the rule allows the attachment on the given side of a tree block
+		 */
+		public boolean attachesOn(int rule, Direction side) {
+			return (directionMasks[rule] & (1 << side.get3DDataValue())) != 0;
+		}
+
+		public AttachmentRule.Propagation getPropagation(int rule) {
+			return propagations[rule];
+		}
+	}
 
 	public static class Algorithm {
 		public int maxLeavesRadius = 7;
 		public int maxLogAmount = 256;
 		public boolean shouldIgnorePersistentLeaves = true;
+		public boolean useConnectivityIndex = false;
+		public int maxIndexedLogAmount = 4096;
 	}
 }
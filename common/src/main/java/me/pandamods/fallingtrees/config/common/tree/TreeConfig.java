@@ -12,14 +12,20 @@
 
 package me.pandamods.fallingtrees.config.common.tree;
 
+import net.minecraft.core.Holder;
+import net.minecraft.core.Registry;
 import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.resources.ResourceKey;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.tags.TagKey;
 import net.minecraft.world.item.Item;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.state.BlockState;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 public class TreeConfig {
@@ -33,32 +39,100 @@ public class TreeConfig {
 	);
 
 	public static class Filter {
+		private static volatile int generation = 0;
+
 		public List<String> whitelistedTags;
 		public List<String> whitelist;
 		public List<String> blacklist;
 
+		private transient CompiledFilter compiledBlocks;
+		private transient CompiledFilter compiledItems;
+
 		public Filter(List<String> whitelistedBlockTags, List<String> whitelistedBlocks, List<String> blacklistedBlocks) {
 			this.whitelistedTags = whitelistedBlockTags;
 			this.whitelist = whitelistedBlocks;
 			this.blacklist = blacklistedBlocks;
 		}
 
+		/**
+		 * Invalidates the compiled form of every filter, has to be called when tags are reloaded.
+		 */
+		public static void invalidateAll() {
+			generation++;
+		}
+
+		static int generation() {
+			return generation;
+		}
+
 		public boolean isValid(BlockState blockState) {
-			Block block = blockState.getBlock();
-			ResourceLocation resourceLocation = BuiltInRegistries.BLOCK.getKey(block);
-			if (blacklist.contains(resourceLocation.toString()))
-				return false;
-			return blockState.getTags().anyMatch(blockTagKey -> whitelistedTags.contains(blockTagKey.location().toString())) ||
-					whitelist.contains(resourceLocation.toString());
+			return getCompiledBlocks().matches(Block.getId(blockState));
 		}
 
 		public boolean isValid(ItemStack itemStack) {
-			Item item = itemStack.getItem();
-			ResourceLocation resourceLocation = BuiltInRegistries.ITEM.getKey(item);
-			if (blacklist.contains(resourceLocation.toString()))
+			return getCompiledItems().matches(BuiltInRegistries.ITEM.getId(itemStack.getItem()));
+		}
+
+		private CompiledFilter getCompiledBlocks() {
+			CompiledFilter compiled = compiledBlocks;
+			if (compiled == null || compiled.generation != generation) {
+				int currentGeneration = generation;
+				BitSet matches = new BitSet(Block.BLOCK_STATE_REGISTRY.size());
+				List<TagKey<Block>> tags = resolveTags(Registries.BLOCK);
+				for (Block block : BuiltInRegistries.BLOCK) {
+					if (isValid(BuiltInRegistries.BLOCK.getKey(block), block.builtInRegistryHolder(), tags)) {
+						for (BlockState blockState : block.getStateDefinition().getPossibleStates()) {
+							matches.set(Block.getId(blockState));
+						}
+					}
+				}
+				compiled = new CompiledFilter(matches, currentGeneration);
+				compiledBlocks = compiled;
+			}
+			return compiled;
+		}
+
+		private CompiledFilter getCompiledItems() {
+			CompiledFilter compiled = compiledItems;
+			if (compiled == null || compiled.generation != generation) {
+				int currentGeneration = generation;
+				BitSet matches = new BitSet(BuiltInRegistries.ITEM.size());
+				List<TagKey<Item>> tags = resolveTags(Registries.ITEM);
+				for (Item item : BuiltInRegistries.ITEM) {
+					if (isValid(BuiltInRegistries.ITEM.getKey(item), item.builtInRegistryHolder(), tags))
+						matches.set(BuiltInRegistries.ITEM.getId(item));
+				}
+				compiled = new CompiledFilter(matches, currentGeneration);
+				compiledItems = compiled;
+			}
+			return compiled;
+		}
+
+		private <T> boolean isValid(ResourceLocation resourceLocation, Holder<T> holder, List<TagKey<T>> tags) {
+			String name = resourceLocation.toString();
+			if (blacklist.contains(name))
 				return false;
-			return itemStack.getTags().anyMatch(blockTagKey -> whitelistedTags.contains(blockTagKey.location().toString())) ||
-					whitelist.contains(resourceLocation.toString());
+			for (TagKey<T> tag : tags) {
+				if (holder.is(tag))
+					return true;
+			}
+			return whitelist.contains(name);
+		}
+
+		private <T> List<TagKey<T>> resolveTags(ResourceKey<? extends Registry<T>> registry) {
+			List<TagKey<T>> tags = new ArrayList<>(whitelistedTags.size());
+			for (String tag : whitelistedTags) {
+				ResourceLocation location = ResourceLocation.tryParse(tag);
+				if (location != null)
+					tags.add(TagKey.create(registry, location));
+			}
+			return tags;
+		}
+
+		private record CompiledFilter(BitSet matches, int generation) {
+			boolean matches(int id) {
+				return id >= 0 && matches.get(id);
+			}
 		}
 	}
 }
@@ -16,8 +16,12 @@ import dev.architectury.utils.Env;
 import me.pandamods.fallingtrees.api.TreeType;
 import me.pandamods.fallingtrees.config.FallingTreesConfig;
 import me.pandamods.fallingtrees.registry.TreeRegistry;
+import me.pandamods.fallingtrees.network.TreeNetworking;
 import me.pandamods.fallingtrees.utils.BlockMapEntityData;
-import me.pandamods.fallingtrees.utils.ItemListEntityData;
+import me.pandamods.fallingtrees.utils.TreeBlockShape;
+import me.pandamods.fallingtrees.utils.metrics.TreeMetrics;
+import me.pandamods.fallingtrees.world.FallingTreeManager;
+import me.pandamods.fallingtrees.world.TreeDropSpawner;
 import dev.pandasystems.pandalib.utils.EnvRunner;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
@@ -27,17 +31,18 @@ import net.minecraft.network.syncher.EntityDataSerializers;
 import net.minecraft.network.syncher.SynchedEntityData;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.level.ServerLevel;
-import net.minecraft.util.Mth;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.util.RandomSource;
 import net.minecraft.world.damagesource.DamageSource;
 import net.minecraft.world.entity.Entity;
 import net.minecraft.world.entity.EntityType;
 import net.minecraft.world.entity.MoverType;
-import net.minecraft.world.entity.item.ItemEntity;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.state.BlockState;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.joml.Math;
 
 import java.util.*;
@@ -45,13 +50,19 @@ import java.util.function.Supplier;
 
 public class TreeEntity extends Entity {
 	public static final EntityDataAccessor<Map<BlockPos, BlockState>> BLOCKS = SynchedEntityData.defineId(TreeEntity.class, BlockMapEntityData.BLOCK_MAP);
-	public static final EntityDataAccessor<List<ItemStack>> DROPS = SynchedEntityData.defineId(TreeEntity.class, ItemListEntityData.ITEM_LIST);
+	public static final EntityDataAccessor<TreeBlockShape> SHAPE = SynchedEntityData.defineId(TreeEntity.class, BlockMapEntityData.TREE_SHAPE);
 	public static final EntityDataAccessor<BlockPos> ORIGIN_POS = SynchedEntityData.defineId(TreeEntity.class, EntityDataSerializers.BLOCK_POS);
 	public static final EntityDataAccessor<Direction> FALL_DIRECTION = SynchedEntityData.defineId(TreeEntity.class, EntityDataSerializers.DIRECTION);
 	public static final EntityDataAccessor<String> TREE_TYPE_LOCATION = SynchedEntityData.defineId(TreeEntity.class, EntityDataSerializers.STRING);
+	public static final EntityDataAccessor<Boolean> KINEMATIC = SynchedEntityData.defineId(TreeEntity.class, EntityDataSerializers.BOOLEAN);
 
 	public Entity owner = null;
 	public TreeType treeType = null;
+	// Only the server drops the items, so they are kept out of the synced entity data
+	private List<ItemStack> drops = Collections.emptyList();
+	// Synced through either BLOCKS or SHAPE, see CommonConfig.syncTreeShapeOnly
+	private Map<BlockPos, BlockState> blocks = Collections.emptyMap();
+	private Set<UUID> blocksRequestedBy = null;
 
 	public TreeEntity(EntityType<?> entityType, Level level) {
 		super(entityType, level);
@@ -65,27 +76,63 @@ public class TreeEntity extends Entity {
 		if (treeTypeLocation != null)
 			this.getEntityData().set(TREE_TYPE_LOCATION, treeTypeLocation.toString());
 
+		Map<BlockPos, BlockState> blockPosMap = captureBlocks(level(), originBlock, blockPosList);
+		this.getEntityData().set(ORIGIN_POS, originBlock);
+		this.blocks = blockPosMap;
+		if (FallingTreesConfig.getCommonConfig().syncTreeShapeOnly)
+			this.getEntityData().set(SHAPE, TreeBlockShape.of(blockPosMap));
+		else
+			this.getEntityData().set(BLOCKS, blockPosMap);
+		this.drops = drops;
+		this.getEntityData().set(KINEMATIC, FallingTreesConfig.getCommonConfig().kinematicFall);
+
+		this.getEntityData().set(FALL_DIRECTION, getFallDirection(owner, originBlock, random));
+	}
+
+	/**
+	 * Points this entity at a fall run by the {@link FallingTreeManager}. Such entities are never added to the server
+	 * level, the manager reuses a single one for every {@link TreeType#onTreeTick} call.
+	 */
+	public void setManagedData(@Nullable Entity owner, TreeType tree, BlockPos originBlock, Direction direction,
+							   Map<BlockPos, BlockState> blocks, int tickCount) {
+		this.owner = owner;
+		this.treeType = tree;
+		this.blocks = blocks;
+		this.tickCount = tickCount;
+		this.setPos(originBlock.getX() + 0.5, originBlock.getY(), originBlock.getZ() + 0.5);
+		this.getEntityData().set(ORIGIN_POS, originBlock);
+		this.getEntityData().set(FALL_DIRECTION, direction);
+		this.getEntityData().set(KINEMATIC, true);
+	}
+
+	/**
+	 * Reads the blocks of a tree relative to its origin, this has to happen before they are removed from the level.
+	 */
+	public static Map<BlockPos, BlockState> captureBlocks(Level level, BlockPos originBlock, List<BlockPos> blockPosList) {
 		Map<BlockPos, BlockState> blockPosMap = new HashMap<>();
 		for (BlockPos pos : blockPosList) {
-			blockPosMap.put(pos.immutable().subtract(originBlock), level().getBlockState(pos));
+			blockPosMap.put(pos.immutable().subtract(originBlock), level.getBlockState(pos));
 		}
-		
-		this.getEntityData().set(ORIGIN_POS, originBlock);
-		this.getEntityData().set(BLOCKS, blockPosMap);
-		this.getEntityData().set(DROPS, drops);
+		return blockPosMap;
+	}
 
-		this.getEntityData().set(FALL_DIRECTION, Direction.fromYRot(
+	public static Direction getFallDirection(@Nullable Entity owner, BlockPos originBlock, RandomSource random) {
+		// Trees felled without an entity, like from a command block, fall in a random direction
+		if (owner == null)
+			return Direction.Plane.HORIZONTAL.getRandomDirection(random);
+		return Direction.fromYRot(
 				-Math.toDegrees(Math.atan2(owner.getX() - originBlock.getX(), owner.getZ() - originBlock.getZ()))
-		).getOpposite());
+		).getOpposite();
 	}
 
 	@Override
 	protected void defineSynchedData(SynchedEntityData.Builder builder) {
 		builder.define(BLOCKS, Collections.emptyMap());
-		builder.define(DROPS, Collections.emptyList());
+		builder.define(SHAPE, TreeBlockShape.EMPTY);
 		builder.define(ORIGIN_POS, new BlockPos(0, 0, 0));
 		builder.define(FALL_DIRECTION, Direction.NORTH);
 		builder.define(TREE_TYPE_LOCATION, "");
+		builder.define(KINEMATIC, false);
 	}
 
 	@Override
@@ -94,6 +141,53 @@ public class TreeEntity extends Entity {
 		if (TREE_TYPE_LOCATION.equals(dataAccessor)) {
 			this.treeType = TreeRegistry.getTree(ResourceLocation.tryParse(this.getEntityData().get(TREE_TYPE_LOCATION)));
 		}
+		if (BLOCKS.equals(dataAccessor)) {
+			this.blocks = this.getEntityData().get(BLOCKS);
+		}
+	}
+
+	@Override
+	public void onSyncedDataUpdated(List<SynchedEntityData.DataValue<?>> dataValues) {
+		super.onSyncedDataUpdated(dataValues);
+		if (!level().isClientSide()) return;
+
+		// The shape arrives with the spawn, before the removal of the tree's blocks, so the level still holds them
+		for (SynchedEntityData.DataValue<?> dataValue : dataValues) {
+			if (dataValue.id() != SHAPE.id()) continue;
+
+			TreeBlockShape shape = this.getEntityData().get(SHAPE);
+			if (shape.isEmpty()) continue;
+
+			Map<BlockPos, BlockState> reconstructed = shape.reconstruct(level(), getOriginPos());
+			if (reconstructed != null)
+				this.blocks = reconstructed;
+			else
+				TreeNetworking.requestTreeBlocks(this);
+		}
+	}
+
+	/**
+	 * Sets the blocks received after a failed reconstruction from the shape.
+	 */
+	public void setBlocks(Map<BlockPos, BlockState> blocks) {
+		this.blocks = blocks;
+	}
+
+	/**
+	 * @return false if the player has already been sent the full blocks of this tree since it started tracking it
+	 */
+	public boolean markBlocksRequested(ServerPlayer player) {
+		if (blocksRequestedBy == null)
+			blocksRequestedBy = new HashSet<>();
+		return blocksRequestedBy.add(player.getUUID());
+	}
+
+	@Override
+	public void stopSeenByPlayer(ServerPlayer player) {
+		super.stopSeenByPlayer(player);
+		// Coming back into range creates a new entity on the client, which can only get the blocks by asking again
+		if (blocksRequestedBy != null)
+			blocksRequestedBy.remove(player.getUUID());
 	}
 
 	@Override
@@ -104,34 +198,41 @@ public class TreeEntity extends Entity {
 
 	@Override
 	public void tick() {
+		long start = System.nanoTime();
+		tickTree();
+		if (!level().isClientSide())
+			TreeMetrics.ENTITY_TICK.record(System.nanoTime() - start);
+	}
+
+	private void tickTree() {
 		super.tick();
 		treeType.onTreeTick(this);
 
-		if (!this.isNoGravity()) {
-			this.setDeltaMovement(this.getDeltaMovement().add(0.0, -0.04, 0.0));
-		}
-		this.move(MoverType.SELF, this.getDeltaMovement());
-		if (this.onGround()) {
-			this.setDeltaMovement(this.getDeltaMovement().multiply(1, -0.5, 1));
+		// A kinematic tree stays where it was spawned, its fall only depends on the tick count
+		if (!isKinematic()) {
+			if (!this.isNoGravity()) {
+				this.setDeltaMovement(this.getDeltaMovement().add(0.0, -0.04, 0.0));
+			}
+			this.move(MoverType.SELF, this.getDeltaMovement());
+			if (this.onGround()) {
+				this.setDeltaMovement(this.getDeltaMovement().multiply(1, -0.5, 1));
+			}
 		}
-		
+
 		if (tickCount >= getMaxLifeTimeTick()) {
-			if (!level().isClientSide())
-				this.dropItems();
+			if (level() instanceof ServerLevel serverLevel)
+				TreeDropSpawner.dropItems(serverLevel, position(), drops, owner);
 			remove(RemovalReason.DISCARDED);
 		}
 	}
 
-	private void dropItems() {
-		for (ItemStack stack : this.getEntityData().get(DROPS)) {
-			double deltaX = Mth.nextDouble(level().random, -0.1, 0.1);
-			double deltaY = 0.25;
-			double deltaZ = Mth.nextDouble(level().random, -0.1, 0.1);
+	public boolean isKinematic() {
+		return this.getEntityData().get(KINEMATIC);
+	}
 
-			ItemEntity entity = new ItemEntity(level(), getX(), getY() + EntityType.ITEM.getHeight() / 2, getZ(), stack, deltaX, deltaY, deltaZ);
-			entity.setDefaultPickUpDelay();
-			level().addFreshEntity(entity);
-		}
+	@Override
+	public boolean isPushedByFluid() {
+		return !isKinematic();
 	}
 
 	@Override
@@ -148,7 +249,7 @@ public class TreeEntity extends Entity {
 	}
 
 	public Map<BlockPos, BlockState> getBlocks() {
-		return this.getEntityData().get(BLOCKS);
+		return this.blocks;
 	}
 	
 	public BlockPos getOriginPos() {
@@ -14,10 +14,23 @@ package me.pandamods.fallingtrees.event;
 
 import dev.architectury.event.EventResult;
 import dev.architectury.event.events.common.BlockEvent;
+import dev.architectury.event.events.common.CommandRegistrationEvent;
+import dev.architectury.event.events.common.LifecycleEvent;
+import dev.architectury.event.events.common.TickEvent;
 import dev.architectury.utils.value.IntValue;
+import me.pandamods.fallingtrees.api.AsyncTreeScanner;
+import me.pandamods.fallingtrees.api.TreeFellingScheduler;
 import me.pandamods.fallingtrees.api.TreeHandler;
+import me.pandamods.fallingtrees.command.FallingTreesCommand;
 import me.pandamods.fallingtrees.config.FallingTreesConfig;
+import me.pandamods.fallingtrees.config.common.tree.TreeConfig;
+import me.pandamods.fallingtrees.registry.TreeRegistry;
+import me.pandamods.fallingtrees.utils.scan.TreeConnectivityIndex;
+import me.pandamods.fallingtrees.world.FallingTreeManager;
+import me.pandamods.fallingtrees.world.TreeDropSpawner;
+import me.pandamods.fallingtrees.world.TreeRemovalScheduler;
 import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.level.Level;
@@ -26,11 +39,51 @@ import net.minecraft.world.level.block.state.BlockState;
 public class EventHandler {
 	public static void register() {
 		BlockEvent.BREAK.register(EventHandler::onBlockBreak);
+		CommandRegistrationEvent.EVENT.register((dispatcher, registry, selection) -> FallingTreesCommand.register(dispatcher));
+		TickEvent.SERVER_PRE.register(TreeFellingScheduler::tick);
+		TickEvent.SERVER_LEVEL_POST.register(AsyncTreeScanner::tick);
+		TickEvent.SERVER_LEVEL_POST.register(TreeRemovalScheduler::tick);
+		TickEvent.SERVER_LEVEL_POST.register(FallingTreeManager::tick);
+		TickEvent.SERVER_LEVEL_POST.register(TreeDropSpawner::tick);
+		LifecycleEvent.SERVER_LEVEL_UNLOAD.register(TreeRemovalScheduler::flush);
+		LifecycleEvent.SERVER_LEVEL_UNLOAD.register(FallingTreeManager::clear);
+		LifecycleEvent.SERVER_LEVEL_UNLOAD.register(TreeDropSpawner::flush);
+		LifecycleEvent.SERVER_LEVEL_UNLOAD.register(TreeConnectivityIndex::onLevelUnload);
+		LifecycleEvent.SERVER_STOPPING.register(server -> {
+			TreeRemovalScheduler.flushAll();
+			FallingTreeManager.clearAll();
+			TreeDropSpawner.flushAll();
+			AsyncTreeScanner.clear();
+			TreeFellingScheduler.clear();
+			TreeConnectivityIndex.clearAll();
+		});
+	}
+
+	/**
+	 * Called by the platform entrypoints after block and item tags have been (re)bound, on both logical sides.
+	 */
+	public static void onTagsReloaded() {
+		TreeConfig.Filter.invalidateAll();
+		TreeRegistry.invalidateCache();
+		TreeConnectivityIndex.clearAll();
+	}
+
+	/**
+	 * Called when the common config was loaded, synced or edited, see {@link FallingTreesConfig#markCommonConfigChanged()}.
+	 */
+	public static void onCommonConfigChanged() {
+		TreeConfig.Filter.invalidateAll();
+		TreeRegistry.invalidateCache();
+		TreeConnectivityIndex.clearAll();
 	}
 
 	private static EventResult onBlockBreak(Level level, BlockPos blockPos, BlockState blockState, ServerPlayer serverPlayer, IntValue intValue) {
-		if (serverPlayer == null)
+		if (serverPlayer == null || TreeHandler.isBreakingVanilla())
 			return EventResult.pass();
+
+		// The drops of a block waiting for removal already belong to a falling tree
+		if (level instanceof ServerLevel serverLevel && TreeRemovalScheduler.isPending(serverLevel, blockPos))
+			return EventResult.interruptFalse();
 		
 		if (!TreeHandler.canPlayerChopTree(serverPlayer))
 			return EventResult.pass();
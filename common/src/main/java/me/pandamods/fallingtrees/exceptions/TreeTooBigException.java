@@ -2,9 +2,11 @@ package me.pandamods.fallingtrees.exceptions;
 
 import net.minecraft.core.BlockPos;
 import net.minecraft.world.level.Level;
+import org.jetbrains.annotations.Nullable;
 
 public class TreeTooBigException extends TreeException {
-	public TreeTooBigException(BlockPos blockPos, Level level) {
-		super(String.format("Tree is too big to be processed at position %s in dimension '%s'", blockPos.toShortString(), level.dimension().location()));
+	public TreeTooBigException(BlockPos blockPos, @Nullable Level level) {
+		super(String.format("Tree is too big to be processed at position %s in dimension '%s'", blockPos.toShortString(),
+				level != null ? level.dimension().location() : "unknown"));
 	}
 }
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.mixin;
+
+import me.pandamods.fallingtrees.utils.scan.TreeConnectivityIndex;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(ServerLevel.class)
+public class ServerLevelMixin {
+	@Inject(method = "onBlockStateChange", at = @At("HEAD"))
+	private void onBlockStateChange(BlockPos pos, BlockState oldState, BlockState newState, CallbackInfo ci) {
+		TreeConnectivityIndex.onBlockStateChange((ServerLevel) (Object) this, pos, oldState, newState);
+	}
+
+	@Inject(method = "unload", at = @At("HEAD"))
+	private void unload(LevelChunk chunk, CallbackInfo ci) {
+		TreeConnectivityIndex.onChunkUnload((ServerLevel) (Object) this, chunk.getPos());
+	}
+}
@@ -0,0 +1,14 @@
+package me.pandamods.fallingtrees.mixin.accessor;
+
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.entity.Mob;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+import java.util.Set;
+
+@Mixin(ServerLevel.class)
+public interface ServerLevelAccessor {
+	@Accessor
+	Set<Mob> getNavigatingMobs();
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.network;
+
+import me.pandamods.fallingtrees.FallingTrees;
+import me.pandamods.fallingtrees.utils.BlockMapEntityData;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.network.RegistryFriendlyByteBuf;
+import net.minecraft.network.codec.ByteBufCodecs;
+import net.minecraft.network.codec.StreamCodec;
+import net.minecraft.network.protocol.common.custom.CustomPacketPayload;
+import net.minecraft.world.level.block.state.BlockState;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every falling tree the {@link me.pandamods.fallingtrees.world.FallingTreeManager} of a level started or ended during
+ * one server tick.
+ */
+public record FallingTreeBatchPayload(List<Spawn> spawns, List<Integer> despawns) implements CustomPacketPayload {
+	public static final Type<FallingTreeBatchPayload> TYPE = new Type<>(FallingTrees.resourceLocation("falling_tree_batch"));
+	public static final StreamCodec<RegistryFriendlyByteBuf, FallingTreeBatchPayload> CODEC = StreamCodec.composite(
+			Spawn.CODEC.apply(ByteBufCodecs.list()), FallingTreeBatchPayload::spawns,
+			ByteBufCodecs.VAR_INT.apply(ByteBufCodecs.list()), FallingTreeBatchPayload::despawns,
+			FallingTreeBatchPayload::new
+	);
+
+	@Override
+	public @NotNull Type<? extends CustomPacketPayload> type() {
+		return TYPE;
+	}
+
+	public record Spawn(int id, BlockPos origin, Direction direction, String treeType, Map<BlockPos, BlockState> blocks) {
+		public static final StreamCodec<RegistryFriendlyByteBuf, Spawn> CODEC = StreamCodec.composite(
+				ByteBufCodecs.VAR_INT, Spawn::id,
+				BlockPos.STREAM_CODEC, Spawn::origin,
+				Direction.STREAM_CODEC, Spawn::direction,
+				ByteBufCodecs.STRING_UTF8, Spawn::treeType,
+				BlockMapEntityData.BLOCK_MAP_CODEC, Spawn::blocks,
+				Spawn::new
+		);
+	}
+}
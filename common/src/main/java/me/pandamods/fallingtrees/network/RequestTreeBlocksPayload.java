@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.network;
+
+import me.pandamods.fallingtrees.FallingTrees;
+import net.minecraft.network.RegistryFriendlyByteBuf;
+import net.minecraft.network.codec.ByteBufCodecs;
+import net.minecraft.network.codec.StreamCodec;
+import net.minecraft.network.protocol.common.custom.CustomPacketPayload;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Sent by a client that could not rebuild a falling tree from its own level, asking for the full block states.
+ */
+public record RequestTreeBlocksPayload(int entityId) implements CustomPacketPayload {
+	public static final Type<RequestTreeBlocksPayload> TYPE = new Type<>(FallingTrees.resourceLocation("request_tree_blocks"));
+	public static final StreamCodec<RegistryFriendlyByteBuf, RequestTreeBlocksPayload> CODEC = StreamCodec.composite(
+			ByteBufCodecs.VAR_INT, RequestTreeBlocksPayload::entityId,
+			RequestTreeBlocksPayload::new
+	);
+
+	@Override
+	public @NotNull Type<? extends CustomPacketPayload> type() {
+		return TYPE;
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.network;
+
+import me.pandamods.fallingtrees.FallingTrees;
+import me.pandamods.fallingtrees.utils.BlockMapEntityData;
+import net.minecraft.core.BlockPos;
+import net.minecraft.network.RegistryFriendlyByteBuf;
+import net.minecraft.network.codec.ByteBufCodecs;
+import net.minecraft.network.codec.StreamCodec;
+import net.minecraft.network.protocol.common.custom.CustomPacketPayload;
+import net.minecraft.world.level.block.state.BlockState;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+
+/**
+ * The full block states of a falling tree, answering a {@link RequestTreeBlocksPayload}.
+ */
+public record TreeBlocksPayload(int entityId, Map<BlockPos, BlockState> blocks) implements CustomPacketPayload {
+	public static final Type<TreeBlocksPayload> TYPE = new Type<>(FallingTrees.resourceLocation("tree_blocks"));
+	public static final StreamCodec<RegistryFriendlyByteBuf, TreeBlocksPayload> CODEC = StreamCodec.composite(
+			ByteBufCodecs.VAR_INT, TreeBlocksPayload::entityId,
+			BlockMapEntityData.BLOCK_MAP_CODEC, TreeBlocksPayload::blocks,
+			TreeBlocksPayload::new
+	);
+
+	@Override
+	public @NotNull Type<? extends CustomPacketPayload> type() {
+		return TYPE;
+	}
+}
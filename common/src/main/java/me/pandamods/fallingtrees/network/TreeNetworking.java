@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.network;
+
+import dev.architectury.networking.NetworkManager;
+import dev.architectury.platform.Platform;
+import dev.architectury.utils.Env;
+import me.pandamods.fallingtrees.client.ClientFallingTrees;
+import me.pandamods.fallingtrees.entity.TreeEntity;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.Entity;
+
+public class TreeNetworking {
+	private static final double MAX_REQUEST_DISTANCE_SQR = 256 * 256;
+
+	public static void register() {
+		NetworkManager.registerReceiver(NetworkManager.c2s(), RequestTreeBlocksPayload.TYPE, RequestTreeBlocksPayload.CODEC,
+				TreeNetworking::onRequestTreeBlocks);
+
+		if (Platform.getEnvironment() == Env.CLIENT) {
+			NetworkManager.registerReceiver(NetworkManager.s2c(), TreeBlocksPayload.TYPE, TreeBlocksPayload.CODEC,
+					TreeNetworking::onTreeBlocks);
+			NetworkManager.registerReceiver(NetworkManager.s2c(), FallingTreeBatchPayload.TYPE, FallingTreeBatchPayload.CODEC,
+					ClientFallingTrees::onBatch);
+		} else {
+			NetworkManager.registerS2CPayloadType(TreeBlocksPayload.TYPE, TreeBlocksPayload.CODEC);
+			NetworkManager.registerS2CPayloadType(FallingTreeBatchPayload.TYPE, FallingTreeBatchPayload.CODEC);
+		}
+	}
+
+	public static void requestTreeBlocks(TreeEntity entity) {
+		NetworkManager.sendToServer(new RequestTreeBlocksPayload(entity.getId()));
+	}
+
+	private static void onRequestTreeBlocks(RequestTreeBlocksPayload payload, NetworkManager.PacketContext context) {
+		context.queue(() -> {
+			if (!(context.getPlayer() instanceof ServerPlayer player)) return;
+
+			Entity entity = player.level().getEntity(payload.entityId());
+			if (entity instanceof TreeEntity tree && player.distanceToSqr(tree) < MAX_REQUEST_DISTANCE_SQR &&
+					tree.markBlocksRequested(player))
+				NetworkManager.sendToPlayer(player, new TreeBlocksPayload(tree.getId(), tree.getBlocks()));
+		});
+	}
+
+	private static void onTreeBlocks(TreeBlocksPayload payload, NetworkManager.PacketContext context) {
+		context.queue(() -> {
+			Entity entity = context.getPlayer().level().getEntity(payload.entityId());
+			if (entity instanceof TreeEntity tree)
+				tree.setBlocks(payload.blocks());
+		});
+	}
+}
@@ -13,6 +13,8 @@
 package me.pandamods.fallingtrees.registry;
 
 import me.pandamods.fallingtrees.FallingTrees;
+import me.pandamods.fallingtrees.config.CommonConfig;
+import me.pandamods.fallingtrees.config.FallingTreesConfig;
 import me.pandamods.fallingtrees.entity.TreeEntity;
 import dev.pandasystems.pandalib.registry.DeferredObject;
 import dev.pandasystems.pandalib.registry.DeferredRegister;
@@ -24,12 +26,16 @@ import net.minecraft.world.entity.MobCategory;
 public class EntityRegistry {
 	public static final DeferredRegister<EntityType<?>> ENTITIES = DeferredRegister.create(FallingTrees.MOD_ID, Registries.ENTITY_TYPE);
 
-	public static final DeferredObject<EntityType<TreeEntity>> TREE = ENTITIES.register("tree", () ->
-			EntityType.Builder
-					.of(TreeEntity::new, MobCategory.MISC)
-					.sized(0.5f, 0.5f)
-					.noSave()
-					.fireImmune()
-					.build(ResourceKey.create(Registries.ENTITY_TYPE, FallingTrees.resourceLocation("tree")))
-	);
+	// Players outside the tracking range never get the tree entity, they only see the blocks disappear
+	public static final DeferredObject<EntityType<TreeEntity>> TREE = ENTITIES.register("tree", () -> {
+		CommonConfig.EntityTracking tracking = FallingTreesConfig.getCommonConfig().entityTracking;
+		return EntityType.Builder
+				.of(TreeEntity::new, MobCategory.MISC)
+				.sized(0.5f, 0.5f)
+				.noSave()
+				.fireImmune()
+				.clientTrackingRange(Math.max(1, tracking.clientTrackingRange))
+				.updateInterval(Math.max(1, tracking.updateInterval))
+				.build(ResourceKey.create(Registries.ENTITY_TYPE, FallingTrees.resourceLocation("tree")));
+	});
 }
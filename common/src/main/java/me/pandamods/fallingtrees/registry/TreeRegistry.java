@@ -14,22 +14,31 @@ package me.pandamods.fallingtrees.registry;
 
 import com.mojang.serialization.Lifecycle;
 import me.pandamods.fallingtrees.FallingTrees;
+import me.pandamods.fallingtrees.api.TreeData;
 import me.pandamods.fallingtrees.api.TreeType;
 import me.pandamods.fallingtrees.config.FallingTreesConfig;
 import me.pandamods.fallingtrees.config.common.TreeConfigs;
+import me.pandamods.fallingtrees.event.EventHandler;
 import me.pandamods.fallingtrees.trees.ChorusTree;
 import me.pandamods.fallingtrees.trees.GenericTree;
 import me.pandamods.fallingtrees.trees.mushroom.MushroomTree;
 import me.pandamods.fallingtrees.trees.VerticalTree;
+import me.pandamods.fallingtrees.utils.metrics.TreeMetrics;
 import dev.pandasystems.pandalib.registry.DeferredObject;
 import dev.pandasystems.pandalib.registry.DeferredRegister;
 import dev.pandasystems.pandalib.registry.RegistryRegister;
+import net.minecraft.core.BlockPos;
 import net.minecraft.core.MappedRegistry;
 import net.minecraft.core.Registry;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.state.BlockState;
 
+import java.util.Arrays;
+
 public class TreeRegistry {
 	public static final ResourceKey<Registry<TreeType>> TREE_REGISTRY_KEY = ResourceKey.createRegistryKey(FallingTrees.resourceLocation("tree_registry"));
 	public static final Registry<TreeType> TREE_REGISTRY = RegistryRegister.register(new MappedRegistry<>(TREE_REGISTRY_KEY, Lifecycle.stable()));
@@ -57,7 +66,64 @@ public class TreeRegistry {
 			MUSHROOM = TREES.register("mushroom", MushroomTree::new);
 	}
 	
+	private static final TreeType UNRESOLVED = new MarkerTreeType();
+	private static final TreeType NO_TREE = new MarkerTreeType();
+
+	private static volatile StemLookup stemLookup = null;
+
 	public static TreeType getTree(BlockState blockState) {
+		return getTree(blockState, false);
+	}
+
+	/**
+	 * Same as {@link #getTree(BlockState)}, but counts stem cache hits and misses for {@code /fallingtrees stats} if the
+	 * level is on the logical server.
+	 */
+	public static TreeType getTree(Level level, BlockState blockState) {
+		return getTree(blockState, !level.isClientSide());
+	}
+
+	private static TreeType getTree(BlockState blockState, boolean recordMetrics) {
+		StemLookup lookup = getStemLookup();
+		int id = Block.getId(blockState);
+		if (id < 0 || id >= lookup.trees.length)
+			return resolveTree(blockState);
+
+		TreeType tree = lookup.trees[id];
+		if (tree == UNRESOLVED) {
+			if (recordMetrics)
+				TreeMetrics.STEM_CACHE_MISSES.increment();
+			tree = resolveTree(blockState);
+			lookup.trees[id] = tree == null ? NO_TREE : tree;
+		} else if (recordMetrics) {
+			TreeMetrics.STEM_CACHE_HITS.increment();
+		}
+		return tree == NO_TREE ? null : tree;
+	}
+
+	/**
+	 * Drops the cached block state to tree type lookup, it will be rebuilt on the next call to {@link #getTree(BlockState)}.
+	 * Has to be called whenever the result of {@link TreeType#isTreeStem(BlockState)} may have changed, like after a tag reload.
+	 * A common config that is loaded, synced or marked as changed drops it through {@link EventHandler#onCommonConfigChanged()}.
+	 */
+	public static void invalidateCache() {
+		stemLookup = null;
+	}
+
+	private static StemLookup getStemLookup() {
+		// Reading the config first lets a replaced config drop the lookup before it is used
+		FallingTreesConfig.getCommonConfig();
+		StemLookup lookup = stemLookup;
+		if (lookup == null || lookup.treeCount != TREE_REGISTRY.size()) {
+			TreeType[] trees = new TreeType[Block.BLOCK_STATE_REGISTRY.size()];
+			Arrays.fill(trees, UNRESOLVED);
+			lookup = new StemLookup(trees, TREE_REGISTRY.size());
+			stemLookup = lookup;
+		}
+		return lookup;
+	}
+
+	private static TreeType resolveTree(BlockState blockState) {
 		for (TreeType tree : TREE_REGISTRY) {
 			if (tree.isTreeStem(blockState))
 				return tree;
@@ -72,4 +138,22 @@ public class TreeRegistry {
 	public static ResourceLocation getTreeLocation(TreeType tree) {
 		return TREE_REGISTRY.getKey(tree);
 	}
+
+	/**
+	 * Lookup table indexed by {@link Block#getId(BlockState)}. Entries are resolved lazily, so rebuilding it is just an
+	 * allocation.
+	 */
+	private record StemLookup(TreeType[] trees, int treeCount) {}
+
+	private static final class MarkerTreeType implements TreeType {
+		@Override
+		public boolean isTreeStem(BlockState blockState) {
+			return false;
+		}
+
+		@Override
+		public TreeData gatherTreeData(BlockPos blockPos, Level level, Player player) {
+			return null;
+		}
+	}
 }
@@ -16,18 +16,17 @@ import me.pandamods.fallingtrees.api.TreeData;
 import me.pandamods.fallingtrees.api.TreeType;
 import me.pandamods.fallingtrees.config.FallingTreesConfig;
 import me.pandamods.fallingtrees.config.common.tree.TreeConfig;
-import me.pandamods.fallingtrees.exceptions.TreeTooBigException;
+import me.pandamods.fallingtrees.utils.scan.TreeScanView;
+import me.pandamods.fallingtrees.utils.scan.TreeScanner;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
-import net.minecraft.server.level.ServerLevel;
-import net.minecraft.stats.Stats;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.level.Level;
-import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.state.BlockState;
 
-import java.util.*;
+import java.util.List;
 
 public class ChorusTree implements TreeType {
 	private static final Direction[] HORIZONTAL_DIRECTIONS = new Direction[] { Direction.NORTH, Direction.EAST, Direction.SOUTH, Direction.WEST };
@@ -45,40 +44,57 @@ public class ChorusTree implements TreeType {
 		return blockState.is(Blocks.CHORUS_FLOWER);
 	}
 
+	@Override
+	public boolean supportsAsyncScan() {
+		return true;
+	}
+
 	@Override
 	public TreeData gatherTreeData(BlockPos blockPos, Level level, Player player) {
-		if (getConfig().requireTool && !getConfig().allowedToolFilter.isValid(player.getMainHandItem())) return null;
+		return gatherTreeData(blockPos, new TreeScanView(level), player);
+	}
+
+	@Override
+	public TreeData gatherTreeData(BlockPos blockPos, TreeScanView view, Player player) {
+		if (getConfig().requireTool && (player == null || !getConfig().allowedToolFilter.isValid(player.getMainHandItem()))) return null;
 
 		blockPos = blockPos.immutable();
 		TreeData.Builder builder = TreeData.builder();
 
-		Set<BlockPos> blockPosSet = gatherBlocks(level, blockPos, builder, player);
-		return builder
-				.addBlocks(blockPosSet)
-				.setToolDamage(blockPosSet.size())
-				.setFoodExhaustionModifier(originalExhaustion -> originalExhaustion * blockPosSet.size())
-				.setMiningSpeedModifier(originalMiningSpeed -> {
-					float speedMultiplication = FallingTreesConfig.getCommonConfig().dynamicMiningSpeed.speedMultiplication;
-					float multiplyAmount = Math.min(FallingTreesConfig.getCommonConfig().dynamicMiningSpeed.maxSpeedMultiplication, ((float) blockPosSet.size() - 1f));
-					return originalMiningSpeed / (multiplyAmount * speedMultiplication + 1f);
-				})
-				.build();
-	}
-
-	private Set<BlockPos> gatherBlocks(Level level, BlockPos startPos, TreeData.Builder builder, Player player) {
-		Set<BlockPos> blocks = new HashSet<>();
-		Queue<BlockPos> toVisit = new LinkedList<>();
-		Set<BlockPos> visited = new HashSet<>();
+		try (TreeScanner scanner = TreeScanner.acquire()) {
+			List<BlockPos> blocks = TreeScanner.toBlockPosList(gatherBlocks(scanner, view, blockPos));
+			builder.setDropContext(view.getLevel(), player);
+			for (BlockPos block : blocks) {
+				BlockState blockState = view.getBlockState(block);
+				if (!isPlant(blockState))
+					continue;
 
-		toVisit.add(startPos);
-		while (!toVisit.isEmpty()) {
-			BlockPos current = toVisit.poll();
-			if (visited.contains(current)) {
-				continue;
+				builder.addMinedBlock(blockState.getBlock());
+				builder.addBlockDrop(block, blockState);
 			}
-			visited.add(current);
 
-			BlockState currentState = level.getBlockState(current);
+			int blockCount = blocks.size();
+			return builder
+					.addBlocks(blocks)
+					.setToolDamage(blockCount)
+					.setFoodExhaustionModifier(originalExhaustion -> originalExhaustion * blockCount)
+					.setMiningSpeedModifier(originalMiningSpeed -> {
+						float speedMultiplication = FallingTreesConfig.getCommonConfig().dynamicMiningSpeed.speedMultiplication;
+						float multiplyAmount = Math.min(FallingTreesConfig.getCommonConfig().dynamicMiningSpeed.maxSpeedMultiplication, ((float) blockCount - 1f));
+						return originalMiningSpeed / (multiplyAmount * speedMultiplication + 1f);
+					})
+					.build();
+		}
+	}
+
+	private LongOpenHashSet gatherBlocks(TreeScanner scanner, TreeScanView view, BlockPos startPos) {
+		LongOpenHashSet blocks = scanner.newSet();
+
+		scanner.resetVisited();
+		scanner.seed(startPos);
+		while (scanner.hasNext()) {
+			long current = scanner.next();
+			BlockState currentState = view.getBlockState(current);
 			if (isFlower(currentState)) {
 				blocks.add(current);
 				continue;
@@ -86,36 +102,25 @@ public class ChorusTree implements TreeType {
 
 			if (isPlant(currentState)) {
 				blocks.add(current);
-				builder.addAwardedStat(Stats.BLOCK_MINED.get(currentState.getBlock()));
-
-				if (level instanceof ServerLevel serverLevel)
-					builder.addDrops(Block.getDrops(currentState, serverLevel, current, null, player, player.getMainHandItem()));
-
-				for (BlockPos neighbor : gatherValidBlocksAround(level, current)) {
-					if (!visited.contains(neighbor)) {
-						toVisit.add(neighbor);
-					}
-				}
+				queueValidBlocksAround(scanner, view, current);
 			}
 		}
 		return blocks;
 	}
 
-	private static List<BlockPos> gatherValidBlocksAround(Level level, BlockPos blockPos) {
-		List<BlockPos> blocks = new ArrayList<>();
+	private static void queueValidBlocksAround(TreeScanner scanner, TreeScanView view, long blockPos) {
 		for (Direction direction : HORIZONTAL_DIRECTIONS) {
-			BlockPos neighborPos = blockPos.relative(direction);
-			if (isPlant(level.getBlockState(neighborPos.below())))
+			long neighborPos = BlockPos.offset(blockPos, direction);
+			if (scanner.isVisited(neighborPos) || isPlant(view.getBlockState(BlockPos.offset(neighborPos, Direction.DOWN))))
 				continue;
-			BlockState blockState = level.getBlockState(neighborPos);
+			BlockState blockState = view.getBlockState(neighborPos);
 			if (isPlant(blockState) || isFlower(blockState))
-				blocks.add(neighborPos);
+				scanner.seed(neighborPos, 0);
 		}
-		BlockPos neighborPos = blockPos.above();
-		BlockState blockState = level.getBlockState(neighborPos);
+		long neighborPos = BlockPos.offset(blockPos, Direction.UP);
+		BlockState blockState = view.getBlockState(neighborPos);
 		if (isPlant(blockState) || isFlower(blockState))
-			blocks.add(neighborPos);
-		return blocks;
+			scanner.seed(neighborPos, 0);
 	}
 
 	public TreeConfig getConfig() {
@@ -15,29 +15,35 @@ package me.pandamods.fallingtrees.trees;
 import me.pandamods.fallingtrees.api.TreeData;
 import me.pandamods.fallingtrees.api.TreeType;
 import me.pandamods.fallingtrees.config.ClientConfig;
+import me.pandamods.fallingtrees.config.CommonConfig;
 import me.pandamods.fallingtrees.config.FallingTreesConfig;
 import me.pandamods.fallingtrees.config.common.tree.GenericTreeConfig;
 import me.pandamods.fallingtrees.entity.TreeEntity;
 import me.pandamods.fallingtrees.exceptions.TreeTooBigException;
 import me.pandamods.fallingtrees.registry.SoundRegistry;
+import me.pandamods.fallingtrees.utils.scan.TreeConnectivityIndex;
+import me.pandamods.fallingtrees.utils.scan.TreeScanView;
+import me.pandamods.fallingtrees.utils.scan.TreeScanner;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import dev.pandasystems.pandalib.platform.Services;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.sounds.SoundSource;
-import net.minecraft.stats.Stats;
 import net.minecraft.world.entity.player.Player;
-import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.Level;
-import net.minecraft.world.level.block.Block;
-import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.LeavesBlock;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.block.state.properties.BlockStateProperties;
 
-import java.util.*;
+import java.util.List;
 
 public class GenericTree implements TreeType {
+	private final TreeConnectivityIndex logIndex = TreeConnectivityIndex.create(this::isLogBlock, TreeScanner.LOG_NEIGHBOURS);
+	private CommonConfig indexedConfig = null;
+
 	@Override
 	public boolean isTreeStem(BlockState blockState) {
 		return getConfig().logFilter.isValid(blockState);
@@ -64,178 +70,251 @@ public class GenericTree implements TreeType {
 	}
 
 	@Override
-	public TreeData gatherTreeData(BlockPos blockPos, Level level, Player player) {
-		if (getConfig().requireTool && !getConfig().allowedToolFilter.isValid(player.getMainHandItem())) return null;
+	public boolean supportsAsyncScan() {
+		return true;
+	}
 
-		blockPos = blockPos.immutable();
-		TreeData.Builder builder = TreeData.builder();
+	@Override
+	public TreeData gatherTreeData(BlockPos blockPos, Level level, Player player) {
+		return gatherTreeData(blockPos, new TreeScanView(level), player);
+	}
 
-		if (!isLogBlock(level.getBlockState(blockPos))) {
-			return null;
+	@Override
+	public TreeData gatherTreeData(BlockPos blockPos, TreeScanView view, Player player) {
+		TreeData data = measureTree(blockPos, view, player);
+		if (data != null) {
+			// Gather the leaves and adjacent blocks right away, while the view still matches the level
+			data.blocks();
 		}
+		return data;
+	}
 
-		Set<BlockPos> logs = gatherLogs(level, blockPos);
-		if (logs.isEmpty()) {
-			return null;
-		}
+	@Override
+	public TreeData measureTree(BlockPos blockPos, Level level, Player player) {
+		return measureTree(blockPos, new TreeScanView(level), player);
+	}
 
-		Set<BlockPos> leaves = new HashSet<>();
-		for (BlockPos logPos : logs) {
-			leaves.addAll(gatherLeavesAroundLog(level, logPos));
-		}
-		if (leaves.isEmpty()) {
-			return null;
-		}
+	/**
+	 * Only gathers the logs, which is all the modifiers need. Leaves, adjacent blocks, drops and stats are deferred to
+	 * {@link #gatherRemainder}.
+	 */
+	private TreeData measureTree(BlockPos blockPos, TreeScanView view, Player player) {
+		// Felling without a player, like from a command, counts as not holding a valid tool
+		if (getConfig().requireTool && (player == null || !getConfig().allowedToolFilter.isValid(player.getMainHandItem()))) return null;
 
-		Set<BlockPos> adjacent = gatherAdjacentBlocks(level, logs, leaves);
+		blockPos = blockPos.immutable();
 
-		Set<BlockPos> allBlocks = new HashSet<>(logs);
-		allBlocks.addAll(leaves);
-		allBlocks.addAll(adjacent);
+		if (!isLogBlock(view.getBlockState(blockPos))) {
+			return null;
+		}
 
-		List<ItemStack> drops = new ArrayList<>();
-		for (BlockPos block : allBlocks) {
-			BlockState blockState = level.getBlockState(block);
-			if (level instanceof ServerLevel serverLevel) {
-				List<ItemStack> items = Block.getDrops(blockState, serverLevel, block, null, player, player.getMainHandItem());
-				drops.addAll(items);
+		try (TreeScanner scanner = TreeScanner.acquire()) {
+			LongOpenHashSet logs = gatherLogs(scanner, view, blockPos);
+			if (logs.isEmpty() || !hasLeaves(view, logs)) {
+				return null;
 			}
-		}
 
-		return builder
-				.addBlocks(allBlocks)
-				.setToolDamage(logs.size())
-				.setFoodExhaustionModifier(originalExhaustion -> originalExhaustion * logs.size())
-				.addDrops(drops)
-				.setMiningSpeedModifier(originalMiningSpeed -> {
-					float speedMultiplication = FallingTreesConfig.getCommonConfig().dynamicMiningSpeed.speedMultiplication;
-					float multiplyAmount = Math.min(FallingTreesConfig.getCommonConfig().dynamicMiningSpeed.maxSpeedMultiplication, ((float) logs.size() - 1f));
-					return originalMiningSpeed / (multiplyAmount * speedMultiplication + 1f);
-				})
-				.addAwardedStats(logs.stream().map(logPos -> {
-					BlockState blockState = level.getBlockState(logPos);
-					return Stats.BLOCK_MINED.get(blockState.getBlock());
-				}).toList())
-				.build();
+			LongOpenHashSet treeLogs = new LongOpenHashSet(logs);
+			int logCount = logs.size();
+			return TreeData.builder()
+					.setRemainder(() -> gatherRemainder(view, player, treeLogs))
+					.setToolDamage(logCount)
+					.setFoodExhaustionModifier(originalExhaustion -> originalExhaustion * logCount)
+					.setMiningSpeedModifier(originalMiningSpeed -> {
+						float speedMultiplication = FallingTreesConfig.getCommonConfig().dynamicMiningSpeed.speedMultiplication;
+						float multiplyAmount = Math.min(FallingTreesConfig.getCommonConfig().dynamicMiningSpeed.maxSpeedMultiplication, ((float) logCount - 1f));
+						return originalMiningSpeed / (multiplyAmount * speedMultiplication + 1f);
+					})
+					.build();
+		}
 	}
 
-	private Set<BlockPos> gatherLogs(Level level, BlockPos startPos) {
-		Set<BlockPos> logs = new HashSet<>();
-		Queue<BlockPos> toVisit = new LinkedList<>();
-		Set<BlockPos> visited = new HashSet<>();
+	private TreeData gatherRemainder(TreeScanView view, Player player, LongOpenHashSet logs) {
+		TreeData.Builder builder = TreeData.builder();
+
+		try (TreeScanner scanner = TreeScanner.acquire()) {
+			LongOpenHashSet leaves = gatherLeaves(scanner, view, logs);
 
-		toVisit.add(startPos);
+			LongOpenHashSet allBlocks = scanner.newSet();
+			allBlocks.addAll(logs);
+			allBlocks.addAll(leaves);
+			gatherAdjacentBlocks(scanner, view, logs, leaves, allBlocks);
 
-		while (!toVisit.isEmpty()) {
-			BlockPos current = toVisit.poll();
-			if (visited.contains(current)) {
-				continue;
+			List<BlockPos> blocks = TreeScanner.toBlockPosList(allBlocks);
+			builder.setDropContext(view.getLevel(), player);
+			for (BlockPos block : blocks) {
+				builder.addBlockDrop(block, view.getBlockState(block));
 			}
-			visited.add(current);
 
-			BlockState currentState = level.getBlockState(current);
-			if (isLogBlock(currentState)) {
-				logs.add(current);
+			LongIterator logIterator = logs.iterator();
+			while (logIterator.hasNext()) {
+				builder.addMinedBlock(view.getBlockState(logIterator.nextLong()).getBlock());
+			}
 
-				if (logs.size() > getConfig().algorithm.maxLogAmount) {
-					throw new TreeTooBigException(current, level);
+			return builder.addBlocks(blocks).build();
+		}
+	}
+
+	private LongOpenHashSet gatherLogs(TreeScanner scanner, TreeScanView view, BlockPos startPos) {
+		LongOpenHashSet logs = scanner.newSet();
+		int maxLogAmount = getConfig().algorithm.maxLogAmount;
+
+		scanner.resetVisited();
+		scanner.seed(startPos);
+
+		LongSet indexedLogs = getIndexedLogs(view, startPos);
+		if (indexedLogs != null) {
+			// Same walk as below, but membership comes from the index instead of the level
+			while (scanner.hasNext()) {
+				long pos = scanner.next();
+				logs.add(pos);
+				if (logs.size() > maxLogAmount) {
+					throw new TreeTooBigException(BlockPos.of(pos), view.getLevel());
 				}
 
-				for (BlockPos offset : BlockPos.betweenClosed(-1, 0, -1, 1, 1, 1)) {
-					BlockPos neighbor = current.offset(offset);
-					if (!visited.contains(neighbor)) {
-						toVisit.add(neighbor);
-					}
+				for (BlockPos offset : TreeScanner.LOG_NEIGHBOURS) {
+					long neighbor = BlockPos.offset(pos, offset.getX(), offset.getY(), offset.getZ());
+					if (indexedLogs.contains(neighbor))
+						scanner.seed(neighbor, 0);
 				}
 			}
+			return logs;
 		}
+
+		scanner.scan(view, TreeScanner.LOG_NEIGHBOURS, (pos, state, depth) -> {
+			if (!isLogBlock(state))
+				return false;
+
+			logs.add(pos);
+			if (logs.size() > maxLogAmount) {
+				throw new TreeTooBigException(BlockPos.of(pos), view.getLevel());
+			}
+			return true;
+		});
 		return logs;
 	}
 
-	private Set<BlockPos> gatherLeavesAroundLog(Level level, BlockPos logPos) {
-		Set<BlockPos> leaves = new HashSet<>();
-		Queue<BlockSearchNode> toVisit = new LinkedList<>();
-		Set<BlockPos> visited = new HashSet<>();
+	/**
+	 * Looks up the logs connected to the given position in the connectivity index. Only used on the server thread,
+	 * scans running against a snapshot always read the blocks themselves.
+	 */
+	private LongSet getIndexedLogs(TreeScanView view, BlockPos startPos) {
+		GenericTreeConfig.Algorithm algorithm = getConfig().algorithm;
+		if (!algorithm.useConnectivityIndex || !(view.getLevel() instanceof ServerLevel level) || !level.getServer().isSameThread())
+			return null;
 
-		for (Direction direction : Direction.values()) {
-			BlockPos neighbor = logPos.relative(direction);
-			toVisit.add(new BlockSearchNode(neighbor, 1));
+		CommonConfig config = FallingTreesConfig.getCommonConfig();
+		if (indexedConfig != config) {
+			logIndex.clear();
+			indexedConfig = config;
 		}
+		return logIndex.getComponent(level, startPos, Math.max(algorithm.maxIndexedLogAmount, algorithm.maxLogAmount), view);
+	}
 
-		while (!toVisit.isEmpty()) {
-			BlockSearchNode node = toVisit.poll();
-			BlockPos current = node.position;
-
-			BlockState currentState = level.getBlockState(current);
-			OptionalInt optionalDistanceAt = LeavesBlock.getOptionalDistanceAt(currentState);
-			if (node.distance != optionalDistanceAt.orElse(0)) {
-				continue;
-			}
-			if (visited.contains(current) || node.distance > getConfig().algorithm.maxLeavesRadius) {
-				continue;
-			}
-			visited.add(current);
-
-			if (isLeafBlock(currentState)) {
-				leaves.add(current);
-
-				for (Direction direction : Direction.values()) {
-					BlockPos nextPos = current.relative(direction);
-					if (!visited.contains(nextPos)) {
-						toVisit.add(new BlockSearchNode(nextPos, node.distance + 1));
-					}
-				}
+	/**
+	 * Gathers the canopy of every log in a single breadth-first pass seeded one block away from all logs, so leaves
+	 * shared between logs are only visited once. A leaf is only accepted when its distance property matches the
+	 * distance it was reached at.
+	 */
+	private LongOpenHashSet gatherLeaves(TreeScanner scanner, TreeScanView view, LongOpenHashSet logs) {
+		LongOpenHashSet leaves = scanner.newSet();
+
+		scanner.resetVisited();
+		LongIterator logIterator = logs.iterator();
+		while (logIterator.hasNext()) {
+			long logPos = logIterator.nextLong();
+			for (BlockPos offset : TreeScanner.FACES) {
+				long neighbor = BlockPos.offset(logPos, offset.getX(), offset.getY(), offset.getZ());
+				if (!logs.contains(neighbor))
+					scanner.seed(neighbor, 1);
 			}
 		}
 
+		scanner.scan(view, TreeScanner.FACES, getConfig().algorithm.maxLeavesRadius, (pos, state, depth) -> {
+			if (!isCanopyLeaf(state, depth))
+				return false;
+
+			leaves.add(pos);
+			return true;
+		});
 		return leaves;
 	}
 
-	private Set<BlockPos> gatherAdjacentBlocks(Level level, Set<BlockPos> logs, Set<BlockPos> leaves) {
-		Set<BlockPos> adjacentBlocks = new HashSet<>();
-		Set<BlockPos> allTreeBlocks = new HashSet<>(logs);
-		allTreeBlocks.addAll(leaves);
-
-		for (BlockPos blockPos : allTreeBlocks) {
+	/**
+	 * Whether {@link #gatherLeaves} would find any leaves. Its scan can only start from a leaf right next to a log.
+	 */
+	private boolean hasLeaves(TreeScanView view, LongOpenHashSet logs) {
+		LongIterator logIterator = logs.iterator();
+		while (logIterator.hasNext()) {
+			long logPos = logIterator.nextLong();
 			for (Direction dir : Direction.values()) {
-				BlockPos neighbor = blockPos.relative(dir);
-				BlockState neighborState = level.getBlockState(neighbor);
-				if (neighborState.is(Blocks.VINE)) {
-					adjacentBlocks.addAll(gatherVines(level, neighbor));
-				} else if (neighborState.is(Blocks.BEE_NEST)) {
-					adjacentBlocks.add(neighbor);
-				} else if (neighborState.is(Blocks.COCOA)) {
-					adjacentBlocks.add(neighbor);
-				}
+				long neighbor = BlockPos.offset(logPos, dir);
+				if (!logs.contains(neighbor) && isCanopyLeaf(view.getBlockState(neighbor), 1))
+					return true;
 			}
 		}
-		return adjacentBlocks;
+		return false;
 	}
 
-	private Set<BlockPos> gatherVines(Level level, BlockPos startPos) {
-		Set<BlockPos> vines = new HashSet<>();
-		Stack<BlockPos> toVisit = new Stack<>();
-		Set<BlockPos> visited = new HashSet<>();
+	private boolean isCanopyLeaf(BlockState state, int distance) {
+		return LeavesBlock.getOptionalDistanceAt(state).orElse(0) == distance && isLeafBlock(state);
+	}
 
-		toVisit.push(startPos);
-		while (!toVisit.isEmpty()) {
-			BlockPos current = toVisit.pop();
-			if (visited.contains(current)) {
-				continue;
+	/**
+	 * Gathers blocks attached to the tree, as configured by {@link GenericTreeConfig#adjacentBlocks}. Only neighbours
+	 * outside the tree are read, and every attachment is visited once no matter how many tree blocks it touches.
+	 */
+	private void gatherAdjacentBlocks(TreeScanner scanner, TreeScanView view, LongOpenHashSet logs, LongOpenHashSet leaves,
+									  LongOpenHashSet allBlocks) {
+		GenericTreeConfig.CompiledAttachments attachments = getConfig().getAttachments();
+		if (attachments.isEmpty())
+			return;
+
+		scanner.resetVisited();
+		seedAttachments(scanner, view, attachments, logs, allBlocks);
+		seedAttachments(scanner, view, attachments, leaves, allBlocks);
+
+		LongOpenHashSet adjacentBlocks = scanner.newSet();
+		while (scanner.hasNext()) {
+			long pos = scanner.next();
+			adjacentBlocks.add(pos);
+
+			int rule = attachments.getRule(view.getBlockState(pos));
+			switch (attachments.getPropagation(rule)) {
+				case DOWN -> propagateAttachment(scanner, view, attachments, rule, pos, Direction.DOWN, allBlocks);
+				case CONNECTED -> {
+					for (Direction dir : Direction.values()) {
+						propagateAttachment(scanner, view, attachments, rule, pos, dir, allBlocks);
+					}
+				}
+				case NONE -> {}
 			}
-			visited.add(current);
+		}
+		allBlocks.addAll(adjacentBlocks);
+	}
 
-			BlockState currentState = level.getBlockState(current);
-			if (currentState.is(Blocks.VINE)) {
-				vines.add(current);
+	private void seedAttachments(TreeScanner scanner, TreeScanView view, GenericTreeConfig.CompiledAttachments attachments,
+								 LongOpenHashSet treeBlocks, LongOpenHashSet allBlocks) {
+		LongIterator iterator = treeBlocks.iterator();
+		while (iterator.hasNext()) {
+			long blockPos = iterator.nextLong();
+			for (Direction dir : Direction.values()) {
+				long neighbor = BlockPos.offset(blockPos, dir);
+				if (allBlocks.contains(neighbor) || scanner.isVisited(neighbor))
+					continue;
 
-				BlockPos neighbor = current.below();
-				if (!visited.contains(neighbor)) {
-					toVisit.push(neighbor);
-				}
+				int rule = attachments.getRule(view.getBlockState(neighbor));
+				if (rule >= 0 && attachments.attachesOn(rule, dir))
+					scanner.seed(neighbor, 0);
 			}
 		}
-		return vines;
+	}
+
+	private void propagateAttachment(TreeScanner scanner, TreeScanView view, GenericTreeConfig.CompiledAttachments attachments,
+									 int rule, long pos, Direction dir, LongOpenHashSet allBlocks) {
+		long neighbor = BlockPos.offset(pos, dir);
+		if (!allBlocks.contains(neighbor) && !scanner.isVisited(neighbor) && attachments.getRule(view.getBlockState(neighbor)) == rule)
+			scanner.seed(neighbor, 0);
 	}
 
 	private boolean isLogBlock(BlockState blockState) {
@@ -249,8 +328,6 @@ public class GenericTree implements TreeType {
 		return getConfig().leavesFilter.isValid(blockState);
 	}
 
-	private record BlockSearchNode(BlockPos position, int distance) { }
-
 	public GenericTreeConfig getConfig() {
 		return FallingTreesConfig.getCommonConfig().trees.genericTree;
 	}
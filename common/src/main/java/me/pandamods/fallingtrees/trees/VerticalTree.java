@@ -16,11 +16,11 @@ import me.pandamods.fallingtrees.api.TreeData;
 import me.pandamods.fallingtrees.api.TreeType;
 import me.pandamods.fallingtrees.config.FallingTreesConfig;
 import me.pandamods.fallingtrees.config.common.tree.VerticalTreeConfig;
+import me.pandamods.fallingtrees.utils.scan.TreeScanView;
+import me.pandamods.fallingtrees.utils.scan.TreeScanner;
 import net.minecraft.core.BlockPos;
-import net.minecraft.server.level.ServerLevel;
-import net.minecraft.stats.Stats;
+import net.minecraft.core.Direction;
 import net.minecraft.world.entity.player.Player;
-import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.state.BlockState;
@@ -34,49 +34,56 @@ public class VerticalTree implements TreeType {
 		return getConfig().filter.isValid(blockState);
 	}
 
+	@Override
+	public boolean supportsAsyncScan() {
+		return true;
+	}
+
 	@Override
 	public TreeData gatherTreeData(BlockPos blockPos, Level level, Player player) {
-		if (getConfig().requireTool && !getConfig().allowedToolFilter.isValid(player.getMainHandItem())) return null;
+		return gatherTreeData(blockPos, new TreeScanView(level), player);
+	}
+
+	@Override
+	public TreeData gatherTreeData(BlockPos blockPos, TreeScanView view, Player player) {
+		if (getConfig().requireTool && (player == null || !getConfig().allowedToolFilter.isValid(player.getMainHandItem()))) return null;
 
 		blockPos = blockPos.immutable();
 		TreeData.Builder builder = TreeData.builder();
 
 		List<BlockPos> blocks = new ArrayList<>();
-		gatherBlocks(level, blockPos, blocks);
+		try (TreeScanner scanner = TreeScanner.acquire()) {
+			gatherBlocks(scanner, view, blockPos, blocks);
+		}
 
-		List<ItemStack> drops = new ArrayList<>();
-		if (level instanceof ServerLevel serverLevel) {
-			for (BlockPos block : blocks) {
-				BlockState blockState = level.getBlockState(block);
-				List<ItemStack> items = Block.getDrops(blockState, serverLevel, block, null, player, player.getMainHandItem());
-				drops.addAll(items);
-			}
+		builder.setDropContext(view.getLevel(), player);
+		for (BlockPos block : blocks) {
+			BlockState blockState = view.getBlockState(block);
+			builder.addBlockDrop(block, blockState);
+			builder.addMinedBlock(blockState.getBlock());
 		}
 
 		return builder
 				.addBlocks(blocks)
 				.setToolDamage(blocks.size())
 				.setFoodExhaustionModifier(originalExhaustion -> originalExhaustion * blocks.size())
-				.addDrops(drops)
 				.setMiningSpeedModifier(originalMiningSpeed -> {
 					float speedMultiplication = FallingTreesConfig.getCommonConfig().dynamicMiningSpeed.speedMultiplication;
 					float multiplyAmount = Math.min(FallingTreesConfig.getCommonConfig().dynamicMiningSpeed.maxSpeedMultiplication, ((float) blocks.size() - 1f));
 					return originalMiningSpeed / (multiplyAmount * speedMultiplication + 1f);
 				})
-				.addAwardedStats(blocks.stream().map(logPos -> {
-					BlockState blockState = level.getBlockState(logPos);
-					return Stats.BLOCK_MINED.get(blockState.getBlock());
-				}).toList())
 				.build();
 	}
 
-	private void gatherBlocks(Level level, BlockPos blockPos, List<BlockPos> blocks) {
-		BlockState blockState = level.getBlockState(blockPos);
+	private void gatherBlocks(TreeScanner scanner, TreeScanView view, BlockPos blockPos, List<BlockPos> blocks) {
+		Block block = view.getBlockState(blockPos).getBlock();
 		blocks.add(blockPos);
 
-		BlockPos neighborPos = blockPos.above();
-		if (level.getBlockState(neighborPos).is(blockState.getBlock()))
-			gatherBlocks(level, neighborPos, blocks);
+		long neighborPos = BlockPos.offset(blockPos.asLong(), Direction.UP);
+		while (view.getBlockState(neighborPos).is(block)) {
+			blocks.add(BlockPos.of(neighborPos));
+			neighborPos = BlockPos.offset(neighborPos, Direction.UP);
+		}
 	}
 
 	public VerticalTreeConfig getConfig() {
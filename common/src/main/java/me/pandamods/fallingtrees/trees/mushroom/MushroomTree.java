@@ -2,6 +2,7 @@ package me.pandamods.fallingtrees.trees.mushroom;
 
 import me.pandamods.fallingtrees.api.TreeData;
 import me.pandamods.fallingtrees.api.TreeType;
+import me.pandamods.fallingtrees.utils.scan.TreeScanView;
 import net.minecraft.core.BlockPos;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.level.Level;
@@ -17,11 +18,21 @@ public class MushroomTree implements TreeType {
 		return blockState.is(Blocks.MUSHROOM_STEM);
 	}
 
+	@Override
+	public boolean supportsAsyncScan() {
+		return true;
+	}
+
 	@Override
 	public TreeData gatherTreeData(BlockPos blockPos, Level level, Player player) {
-		TreeData data = RED_MUSHROOM_TREE.gatherTreeData(blockPos, level, player);
+		return gatherTreeData(blockPos, new TreeScanView(level), player);
+	}
+
+	@Override
+	public TreeData gatherTreeData(BlockPos blockPos, TreeScanView view, Player player) {
+		TreeData data = RED_MUSHROOM_TREE.gatherTreeData(blockPos, view, player);
 		if (data == null)
-			data = BROWN_MUSHROOM_TREE.gatherTreeData(blockPos, level, player);
+			data = BROWN_MUSHROOM_TREE.gatherTreeData(blockPos, view, player);
 		return data;
 	}
 }
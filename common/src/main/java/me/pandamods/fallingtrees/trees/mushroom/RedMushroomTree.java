@@ -16,17 +16,19 @@ import me.pandamods.fallingtrees.api.TreeData;
 import me.pandamods.fallingtrees.api.TreeType;
 import me.pandamods.fallingtrees.config.FallingTreesConfig;
 import me.pandamods.fallingtrees.config.common.tree.TreeConfig;
+import me.pandamods.fallingtrees.utils.scan.TreeScanView;
+import me.pandamods.fallingtrees.utils.scan.TreeScanner;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.minecraft.core.BlockPos;
-import net.minecraft.server.level.ServerLevel;
-import net.minecraft.stats.Stats;
+import net.minecraft.core.Direction;
 import net.minecraft.world.entity.player.Player;
-import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.Level;
-import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.state.BlockState;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
 
 public class RedMushroomTree implements TreeType {
 	private static final BlockPos[] CAP_SCAN_OFFSET = new BlockPos[] {
@@ -41,107 +43,82 @@ public class RedMushroomTree implements TreeType {
 		return blockState.is(Blocks.MUSHROOM_STEM);
 	}
 
+	@Override
+	public boolean supportsAsyncScan() {
+		return true;
+	}
+
 	@Override
 	public TreeData gatherTreeData(BlockPos blockPos, Level level, Player player) {
-		if (getConfig().requireTool && !getConfig().allowedToolFilter.isValid(player.getMainHandItem())) return null;
+		return gatherTreeData(blockPos, new TreeScanView(level), player);
+	}
+
+	@Override
+	public TreeData gatherTreeData(BlockPos blockPos, TreeScanView view, Player player) {
+		if (getConfig().requireTool && (player == null || !getConfig().allowedToolFilter.isValid(player.getMainHandItem()))) return null;
 
 		blockPos = blockPos.immutable();
 		TreeData.Builder builder = TreeData.builder();
 
-		Set<BlockPos> stemBlocks = gatherStemBlocks(level, blockPos);
-		Set<BlockPos> capBlocks = new HashSet<>();
-
-		stemBlocks.forEach(stemPos -> capBlocks.addAll(gatherCapBlocks(level, stemPos.above())));
-		if (capBlocks.isEmpty()) return null;
-
 		List<BlockPos> blocks = new ArrayList<>();
-		blocks.addAll(stemBlocks);
-		blocks.addAll(capBlocks);
-
-		List<ItemStack> drops = new ArrayList<>();
-		if (level instanceof ServerLevel serverLevel) {
-			for (BlockPos block : blocks) {
-				BlockState blockState = level.getBlockState(block);
-				List<ItemStack> items = Block.getDrops(blockState, serverLevel, block, null, player, player.getMainHandItem());
-				drops.addAll(items);
+		try (TreeScanner scanner = TreeScanner.acquire()) {
+			LongOpenHashSet stemBlocks = gatherStemBlocks(scanner, view, blockPos);
+			LongOpenHashSet capBlocks = scanner.newSet();
+
+			LongIterator stemIterator = stemBlocks.iterator();
+			while (stemIterator.hasNext()) {
+				gatherCapBlocks(scanner, view, BlockPos.offset(stemIterator.nextLong(), Direction.UP), capBlocks);
 			}
+			if (capBlocks.isEmpty()) return null;
+
+			TreeScanner.addBlockPositions(stemBlocks, blocks);
+			TreeScanner.addBlockPositions(capBlocks, blocks);
+		}
+
+		builder.setDropContext(view.getLevel(), player);
+		for (BlockPos block : blocks) {
+			BlockState blockState = view.getBlockState(block);
+			builder.addBlockDrop(block, blockState);
+			builder.addMinedBlock(blockState.getBlock());
 		}
 
 		return builder
 				.addBlocks(blocks)
 				.setToolDamage(blocks.size())
 				.setFoodExhaustionModifier(originalExhaustion -> originalExhaustion * blocks.size())
-				.addDrops(drops)
 				.setMiningSpeedModifier(originalMiningSpeed -> {
 					float speedMultiplication = FallingTreesConfig.getCommonConfig().dynamicMiningSpeed.speedMultiplication;
 					float multiplyAmount = Math.min(FallingTreesConfig.getCommonConfig().dynamicMiningSpeed.maxSpeedMultiplication, ((float) blocks.size() - 1f));
 					return originalMiningSpeed / (multiplyAmount * speedMultiplication + 1f);
 				})
-				.addAwardedStats(blocks.stream().map(logPos -> {
-					BlockState blockState = level.getBlockState(logPos);
-					return Stats.BLOCK_MINED.get(blockState.getBlock());
-				}).toList())
 				.build();
 	}
 
-	private Set<BlockPos> gatherStemBlocks(Level level, BlockPos startPos) {
-		Set<BlockPos> blocks = new HashSet<>();
-		Stack<BlockPos> toVisit = new Stack<>();
-		Set<BlockPos> visited = new HashSet<>();
-
-		toVisit.add(startPos);
-		while (!toVisit.isEmpty()) {
-			BlockPos current = toVisit.pop();
-			if (visited.contains(current)) {
-				continue;
-			}
-			visited.add(current);
-
-			BlockState currentState = level.getBlockState(current);
-			if (isTreeStem(currentState)) {
-				blocks.add(current);
-
-				BlockPos neighbor = current.above();
-				if (!visited.contains(neighbor)) {
-					toVisit.add(neighbor);
-				}
-			}
-		}
+	private LongOpenHashSet gatherStemBlocks(TreeScanner scanner, TreeScanView view, BlockPos startPos) {
+		LongOpenHashSet blocks = scanner.newSet();
+
+		scanner.resetVisited();
+		scanner.seed(startPos);
+		scanner.scan(view, TreeScanner.UP, (pos, state, depth) -> {
+			if (!isTreeStem(state))
+				return false;
+			blocks.add(pos);
+			return true;
+		});
 		return blocks;
 	}
 
-	private Set<BlockPos> gatherCapBlocks(Level level, BlockPos startPos) {
-		Set<BlockPos> blocks = new HashSet<>();
-		Queue<BlockSearchNode> toVisit = new LinkedList<>();
-		Set<BlockPos> visited = new HashSet<>();
-
-		toVisit.add(new BlockSearchNode(startPos, 1));
-		while (!toVisit.isEmpty()) {
-			BlockSearchNode node = toVisit.poll();
-			BlockPos current = node.position();
-
-			if (visited.contains(current) || node.distance() > 6) {
-				continue;
-			}
-			visited.add(current);
-
-			BlockState currentState = level.getBlockState(current);
-			if (currentState.is(Blocks.RED_MUSHROOM_BLOCK)) {
-				blocks.add(current);
-
-				for (BlockPos offset : CAP_SCAN_OFFSET) {
-					BlockPos neighbor = current.offset(offset);
-					if (!visited.contains(neighbor)) {
-						toVisit.add(new BlockSearchNode(neighbor, node.distance() + 1));
-					}
-				}
-			}
-		}
-		return blocks;
+	private void gatherCapBlocks(TreeScanner scanner, TreeScanView view, long startPos, LongOpenHashSet blocks) {
+		scanner.resetVisited();
+		scanner.seed(startPos, 1);
+		scanner.scan(view, CAP_SCAN_OFFSET, 6, (pos, state, depth) -> {
+			if (!state.is(Blocks.RED_MUSHROOM_BLOCK))
+				return false;
+			blocks.add(pos);
+			return true;
+		});
 	}
 
-	private record BlockSearchNode(BlockPos position, int distance) { }
-
 	public TreeConfig getConfig() {
 		return FallingTreesConfig.getCommonConfig().trees.mushroomTree;
 	}
@@ -12,38 +12,328 @@
 
 package me.pandamods.fallingtrees.utils;
 
-import com.google.common.collect.Maps;
 import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.DecoderException;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import me.pandamods.fallingtrees.utils.metrics.TreeMetrics;
 import net.minecraft.core.BlockPos;
-import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.network.VarInt;
 import net.minecraft.network.codec.StreamCodec;
 import net.minecraft.network.syncher.EntityDataSerializer;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.state.BlockState;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * Syncs the blocks of a falling tree, relative to its origin, or only their {@link TreeBlockShape}.
+ * <p>
+ * Positions are written in whichever of two formats is smaller, marked by a leading format byte. The sparse format writes
+ * every position as a long followed by the state id. The dense format writes the bounding box of the blocks, a palette
+ * of their states, a bitset of the occupied positions within the box, and then the palette index of every occupied
+ * position packed to as few bits as the palette needs. Shapes are written the same way without any states. Decoding a
+ * block map produces a {@link CompactBlockMap}.
+ */
 public class BlockMapEntityData {
+	private static final byte SPARSE = 0;
+	private static final byte DENSE = 1;
+	private static final int MAX_DENSE_VOLUME = 1 << 24;
+
 	public static StreamCodec<ByteBuf, Map<BlockPos, BlockState>> BLOCK_MAP_CODEC = new StreamCodec<>() {
 		public @NotNull Map<BlockPos, BlockState> decode(ByteBuf byteBuf) {
-			int size = VarInt.read(byteBuf);
-			Map<BlockPos, BlockState> map = Maps.newHashMapWithExpectedSize(size);
-			for (int i = 0; i < size; i++) {
-				map.put(FriendlyByteBuf.readBlockPos(byteBuf), Block.stateById(VarInt.read(byteBuf)));
-			}
-			return map;
+			Positions positions = readPositions(byteBuf, true);
+			return new CompactBlockMap(positions.positions, positions.states);
 		}
 
 		public void encode(ByteBuf byteBuf, Map<BlockPos, BlockState> map) {
-			VarInt.write(byteBuf, map.size());
-			map.forEach((blockPos, blockState) -> {
-				FriendlyByteBuf.writeBlockPos(byteBuf, blockPos);
-				VarInt.write(byteBuf, Block.getId(blockState));
-			});
+			int start = byteBuf.writerIndex();
+			long[] positions = new long[map.size()];
+			BlockState[] states = new BlockState[map.size()];
+			int i = 0;
+			for (Map.Entry<BlockPos, BlockState> entry : map.entrySet()) {
+				positions[i] = entry.getKey().asLong();
+				states[i++] = entry.getValue();
+			}
+			writePositions(byteBuf, positions, states);
+			TreeMetrics.BYTES_SYNCED.add(byteBuf.writerIndex() - start);
+		}
+	};
+
+	public static StreamCodec<ByteBuf, TreeBlockShape> SHAPE_CODEC = new StreamCodec<>() {
+		public @NotNull TreeBlockShape decode(ByteBuf byteBuf) {
+			int hash = byteBuf.readInt();
+			return new TreeBlockShape(readPositions(byteBuf, false).positions, hash);
+		}
+
+		public void encode(ByteBuf byteBuf, TreeBlockShape shape) {
+			int start = byteBuf.writerIndex();
+			byteBuf.writeInt(shape.hash());
+			writePositions(byteBuf, shape.positions(), null);
+			TreeMetrics.BYTES_SYNCED.add(byteBuf.writerIndex() - start);
 		}
 	};
 
 	public static final EntityDataSerializer<Map<BlockPos, BlockState>> BLOCK_MAP = EntityDataSerializer.forValueType(BLOCK_MAP_CODEC);
+	public static final EntityDataSerializer<TreeBlockShape> TREE_SHAPE = EntityDataSerializer.forValueType(SHAPE_CODEC);
+
+	/**
+	 * @param states the state of every position, or null to only write the positions
+	 */
+	private static void writePositions(ByteBuf byteBuf, long[] positions, @Nullable BlockState[] states) {
+		DenseLayout layout = positions.length == 0 ? null : DenseLayout.of(positions, states);
+		if (layout != null && layout.encodedSize() < sparseSize(states, positions.length)) {
+			byteBuf.writeByte(DENSE);
+			layout.write(byteBuf);
+		} else {
+			byteBuf.writeByte(SPARSE);
+			VarInt.write(byteBuf, positions.length);
+			for (int i = 0; i < positions.length; i++) {
+				byteBuf.writeLong(positions[i]);
+				if (states != null)
+					VarInt.write(byteBuf, Block.getId(states[i]));
+			}
+		}
+	}
+
+	private static Positions readPositions(ByteBuf byteBuf, boolean withStates) {
+		byte format = byteBuf.readByte();
+		return switch (format) {
+			case SPARSE -> readSparse(byteBuf, withStates);
+			case DENSE -> readDense(byteBuf, withStates);
+			default -> throw new DecoderException("Unknown block map format " + format);
+		};
+	}
+
+	private static int sparseSize(@Nullable BlockState[] states, int count) {
+		int size = VarInt.getByteSize(count) + count * Long.BYTES;
+		if (states != null) {
+			for (BlockState state : states) {
+				size += VarInt.getByteSize(Block.getId(state));
+			}
+		}
+		return size;
+	}
+
+	private static Positions readSparse(ByteBuf byteBuf, boolean withStates) {
+		int size = readCount(byteBuf, withStates ? Long.BYTES + 1 : Long.BYTES);
+		long[] positions = new long[size];
+		BlockState[] states = withStates ? new BlockState[size] : null;
+		for (int i = 0; i < size; i++) {
+			positions[i] = byteBuf.readLong();
+			if (states != null)
+				states[i] = Block.stateById(VarInt.read(byteBuf));
+		}
+		return new Positions(positions, states);
+	}
+
+	private static Positions readDense(ByteBuf byteBuf, boolean withStates) {
+		int minX = readSignedVarInt(byteBuf);
+		int minY = readSignedVarInt(byteBuf);
+		int minZ = readSignedVarInt(byteBuf);
+		int sizeX = VarInt.read(byteBuf);
+		int sizeY = VarInt.read(byteBuf);
+		int sizeZ = VarInt.read(byteBuf);
+		long volume = (long) sizeX * sizeY * sizeZ;
+		if (sizeX <= 0 || sizeY <= 0 || sizeZ <= 0 || volume > MAX_DENSE_VOLUME)
+			throw new DecoderException("Invalid block map bounds " + sizeX + "x" + sizeY + "x" + sizeZ);
+
+		BlockState[] palette = new BlockState[readCount(byteBuf, 1)];
+		if (withStates == (palette.length == 0))
+			throw new DecoderException("Block map palette does not match the expected contents");
+		for (int i = 0; i < palette.length; i++) {
+			palette[i] = Block.stateById(VarInt.read(byteBuf));
+		}
+		int bits = bitsFor(palette.length);
+
+		byte[] occupancy = new byte[(int) ((volume + 7) / 8)];
+		byteBuf.readBytes(occupancy);
+		int count = 0;
+		for (byte b : occupancy) {
+			count += Integer.bitCount(b & 0xFF);
+		}
+
+		long[] positions = new long[count];
+		BlockState[] states = withStates ? new BlockState[count] : null;
+		BitReader reader = new BitReader(byteBuf);
+		int i = 0;
+		for (int boxIndex = 0; boxIndex < volume; boxIndex++) {
+			if ((occupancy[boxIndex >> 3] & (1 << (boxIndex & 7))) == 0)
+				continue;
+
+			int x = boxIndex % sizeX;
+			int z = boxIndex / sizeX % sizeZ;
+			int y = boxIndex / sizeX / sizeZ;
+			positions[i] = BlockPos.asLong(minX + x, minY + y, minZ + z);
+			if (states != null) {
+				int paletteIndex = reader.read(bits);
+				if (paletteIndex >= palette.length)
+					throw new DecoderException("Block map palette index " + paletteIndex + " out of bounds");
+				states[i] = palette[paletteIndex];
+			}
+			i++;
+		}
+		return new Positions(positions, states);
+	}
+
+	private static int readCount(ByteBuf byteBuf, int minBytesPerEntry) {
+		int count = VarInt.read(byteBuf);
+		if (count < 0 || (long) count * minBytesPerEntry > byteBuf.readableBytes())
+			throw new DecoderException("Invalid block map size " + count);
+		return count;
+	}
+
+	private static int bitsFor(int paletteSize) {
+		return paletteSize <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(paletteSize - 1);
+	}
+
+	private static void writeSignedVarInt(ByteBuf byteBuf, int value) {
+		VarInt.write(byteBuf, (value << 1) ^ (value >> 31));
+	}
+
+	private static int readSignedVarInt(ByteBuf byteBuf) {
+		int value = VarInt.read(byteBuf);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static int signedVarIntSize(int value) {
+		return VarInt.getByteSize((value << 1) ^ (value >> 31));
+	}
+
+	private record Positions(long[] positions, @Nullable BlockState[] states) {}
+
+	private record DenseLayout(int minX, int minY, int minZ, int sizeX, int sizeY, int sizeZ,
+							   List<BlockState> palette, long[] entries) {
+		/**
+		 * @return the layout of the positions, or null if their bounding box is too large to be sent densely
+		 */
+		private static DenseLayout of(long[] positions, @Nullable BlockState[] states) {
+			int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+			int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+			for (long pos : positions) {
+				minX = Math.min(minX, BlockPos.getX(pos));
+				minY = Math.min(minY, BlockPos.getY(pos));
+				minZ = Math.min(minZ, BlockPos.getZ(pos));
+				maxX = Math.max(maxX, BlockPos.getX(pos));
+				maxY = Math.max(maxY, BlockPos.getY(pos));
+				maxZ = Math.max(maxZ, BlockPos.getZ(pos));
+			}
+			long sizeX = (long) maxX - minX + 1;
+			long sizeY = (long) maxY - minY + 1;
+			long sizeZ = (long) maxZ - minZ + 1;
+			if (sizeX * sizeY * sizeZ > MAX_DENSE_VOLUME)
+				return null;
+
+			// Entries are sorted by their index within the box, with the palette index in the low bits
+			List<BlockState> palette = new ArrayList<>();
+			Reference2IntOpenHashMap<BlockState> paletteIndices = new Reference2IntOpenHashMap<>();
+			paletteIndices.defaultReturnValue(-1);
+			long[] entries = new long[positions.length];
+			for (int i = 0; i < positions.length; i++) {
+				long pos = positions[i];
+				int paletteIndex = 0;
+				if (states != null) {
+					paletteIndex = paletteIndices.getInt(states[i]);
+					if (paletteIndex < 0) {
+						paletteIndex = palette.size();
+						palette.add(states[i]);
+						paletteIndices.put(states[i], paletteIndex);
+					}
+				}
+				long boxIndex = ((BlockPos.getY(pos) - minY) * sizeZ + (BlockPos.getZ(pos) - minZ)) * sizeX + (BlockPos.getX(pos) - minX);
+				entries[i] = boxIndex << 32 | paletteIndex;
+			}
+			Arrays.sort(entries);
+			return new DenseLayout(minX, minY, minZ, (int) sizeX, (int) sizeY, (int) sizeZ, palette, entries);
+		}
+
+		private int encodedSize() {
+			int size = signedVarIntSize(minX) + signedVarIntSize(minY) + signedVarIntSize(minZ) +
+					VarInt.getByteSize(sizeX) + VarInt.getByteSize(sizeY) + VarInt.getByteSize(sizeZ) +
+					VarInt.getByteSize(palette.size());
+			for (BlockState state : palette) {
+				size += VarInt.getByteSize(Block.getId(state));
+			}
+			long volume = (long) sizeX * sizeY * sizeZ;
+			return (int) (size + (volume + 7) / 8 + ((long) entries.length * bitsFor(palette.size()) + 7) / 8);
+		}
+
+		private void write(ByteBuf byteBuf) {
+			writeSignedVarInt(byteBuf, minX);
+			writeSignedVarInt(byteBuf, minY);
+			writeSignedVarInt(byteBuf, minZ);
+			VarInt.write(byteBuf, sizeX);
+			VarInt.write(byteBuf, sizeY);
+			VarInt.write(byteBuf, sizeZ);
+			VarInt.write(byteBuf, palette.size());
+			palette.forEach(state -> VarInt.write(byteBuf, Block.getId(state)));
+
+			byte[] occupancy = new byte[(int) (((long) sizeX * sizeY * sizeZ + 7) / 8)];
+			for (long entry : entries) {
+				int boxIndex = (int) (entry >>> 32);
+				occupancy[boxIndex >> 3] |= (byte) (1 << (boxIndex & 7));
+			}
+			byteBuf.writeBytes(occupancy);
+
+			int bits = bitsFor(palette.size());
+			BitWriter writer = new BitWriter(byteBuf);
+			for (long entry : entries) {
+				writer.write((int) entry, bits);
+			}
+			writer.flush();
+		}
+	}
+
+	private static final class BitWriter {
+		private final ByteBuf byteBuf;
+		private long buffer = 0;
+		private int bufferedBits = 0;
+
+		private BitWriter(ByteBuf byteBuf) {
+			this.byteBuf = byteBuf;
+		}
+
+		private void write(int value, int bits) {
+			buffer |= (long) value << bufferedBits;
+			bufferedBits += bits;
+			while (bufferedBits >= 8) {
+				byteBuf.writeByte((int) buffer);
+				buffer >>>= 8;
+				bufferedBits -= 8;
+			}
+		}
+
+		private void flush() {
+			if (bufferedBits > 0)
+				byteBuf.writeByte((int) buffer);
+			buffer = 0;
+			bufferedBits = 0;
+		}
+	}
+
+	private static final class BitReader {
+		private final ByteBuf byteBuf;
+		private long buffer = 0;
+		private int bufferedBits = 0;
+
+		private BitReader(ByteBuf byteBuf) {
+			this.byteBuf = byteBuf;
+		}
+
+		private int read(int bits) {
+			if (bits == 0) return 0;
+			while (bufferedBits < bits) {
+				buffer |= (long) byteBuf.readUnsignedByte() << bufferedBits;
+				bufferedBits += 8;
+			}
+			int value = (int) (buffer & ((1L << bits) - 1));
+			buffer >>>= bits;
+			bufferedBits -= bits;
+			return value;
+		}
+	}
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.utils;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.block.state.BlockState;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Read-only block map backed by packed positions, as decoded by {@link BlockMapEntityData}.
+ * <p>
+ * Positions are only turned into {@link BlockPos} instances while iterating. The lookup table used by
+ * {@link #get} and {@link #containsKey} is built on the first lookup.
+ */
+public final class CompactBlockMap extends AbstractMap<BlockPos, BlockState> {
+	private final long[] positions;
+	private final BlockState[] states;
+	private Long2IntOpenHashMap index = null;
+
+	public CompactBlockMap(long[] positions, BlockState[] states) {
+		this.positions = positions;
+		this.states = states;
+	}
+
+	@Override
+	public int size() {
+		return positions.length;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return key instanceof BlockPos pos && indexOf(pos) >= 0;
+	}
+
+	@Override
+	public BlockState get(Object key) {
+		if (!(key instanceof BlockPos pos)) return null;
+		int i = indexOf(pos);
+		return i >= 0 ? states[i] : null;
+	}
+
+	@Override
+	public void forEach(BiConsumer<? super BlockPos, ? super BlockState> action) {
+		for (int i = 0; i < positions.length; i++) {
+			action.accept(BlockPos.of(positions[i]), states[i]);
+		}
+	}
+
+	@Override
+	public @NotNull Set<Entry<BlockPos, BlockState>> entrySet() {
+		return new AbstractSet<>() {
+			@Override
+			public @NotNull Iterator<Entry<BlockPos, BlockState>> iterator() {
+				return new Iterator<>() {
+					private int next = 0;
+
+					@Override
+					public boolean hasNext() {
+						return next < positions.length;
+					}
+
+					@Override
+					public Entry<BlockPos, BlockState> next() {
+						if (!hasNext()) throw new NoSuchElementException();
+						int i = next++;
+						return new SimpleImmutableEntry<>(BlockPos.of(positions[i]), states[i]);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return positions.length;
+			}
+		};
+	}
+
+	private int indexOf(BlockPos pos) {
+		if (index == null) {
+			Long2IntOpenHashMap index = new Long2IntOpenHashMap(positions.length);
+			index.defaultReturnValue(-1);
+			for (int i = 0; i < positions.length; i++) {
+				index.put(positions[i], i);
+			}
+			this.index = index;
+		}
+		return index.get(pos.asLong());
+	}
+}
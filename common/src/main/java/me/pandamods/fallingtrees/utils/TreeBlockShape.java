@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.utils;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.BlockGetter;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+
+/**
+ * The positions of a falling tree's blocks relative to its origin, with a hash of their states. Clients that still have
+ * the tree in their level rebuild the blocks from it instead of receiving every state.
+ * <p>
+ * The hash does not depend on the order of the positions.
+ */
+public record TreeBlockShape(long[] positions, int hash) {
+	public static final TreeBlockShape EMPTY = new TreeBlockShape(new long[0], 0);
+
+	public static TreeBlockShape of(Map<BlockPos, BlockState> blocks) {
+		long[] positions = new long[blocks.size()];
+		long hash = 0;
+		int i = 0;
+		for (Map.Entry<BlockPos, BlockState> entry : blocks.entrySet()) {
+			positions[i++] = entry.getKey().asLong();
+			hash += hashEntry(entry.getKey().asLong(), entry.getValue());
+		}
+		return new TreeBlockShape(positions, HashCommon.long2int(hash));
+	}
+
+	public boolean isEmpty() {
+		return positions.length == 0;
+	}
+
+	/**
+	 * Reads the states of the shape from the level.
+	 *
+	 * @return the blocks relative to the origin, or null if the level does not hold the same states anymore
+	 */
+	public @Nullable Map<BlockPos, BlockState> reconstruct(BlockGetter level, BlockPos origin) {
+		BlockState[] states = new BlockState[positions.length];
+		BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+		long hash = 0;
+		for (int i = 0; i < positions.length; i++) {
+			long relative = positions[i];
+			pos.set(origin.getX() + BlockPos.getX(relative), origin.getY() + BlockPos.getY(relative), origin.getZ() + BlockPos.getZ(relative));
+			states[i] = level.getBlockState(pos);
+			hash += hashEntry(relative, states[i]);
+		}
+		return HashCommon.long2int(hash) == this.hash ? new CompactBlockMap(positions, states) : null;
+	}
+
+	private static long hashEntry(long pos, BlockState state) {
+		return HashCommon.mix(pos * 31 + Block.getId(state));
+	}
+}
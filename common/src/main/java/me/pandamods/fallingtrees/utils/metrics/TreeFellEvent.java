@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.utils.metrics;
+
+import jdk.jfr.*;
+
+@Name("fallingtrees.TreeFell")
+@Label("Tree Fell")
+@Category("Falling Trees")
+@Description("Handling a block break that may fell a tree, on the server thread")
+@StackTrace(false)
+public class TreeFellEvent extends Event {
+	@Label("Tree Type")
+	public String treeType;
+
+	@Label("Felled")
+	public boolean felled;
+}
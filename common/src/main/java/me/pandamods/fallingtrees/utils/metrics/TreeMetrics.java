@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server-wide counters and timings of the mod, shown by {@code /fallingtrees stats}.
+ * <p>
+ * Everything is recorded with {@link LongAdder}s and atomics, so it can be updated from scan workers and network
+ * threads as well. Timings only keep power of two buckets, which is plenty for spotting which part of felling costs
+ * the most.
+ */
+public final class TreeMetrics {
+	public static final Timer DESTROY_TREE = new Timer();
+	public static final Timer SCAN = new Timer();
+	public static final Timer REMOVAL = new Timer();
+	public static final Timer MINING_SPEED = new Timer();
+	public static final Timer ENTITY_TICK = new Timer();
+
+	public static final LongAdder BLOCKS_VISITED = new LongAdder();
+	public static final LongAdder BLOCKS_COLLECTED = new LongAdder();
+	public static final LongAdder BLOCKS_REMOVED = new LongAdder();
+	public static final LongAdder DROP_STACKS = new LongAdder();
+	public static final LongAdder DROP_ITEMS = new LongAdder();
+	public static final LongAdder STEM_CACHE_HITS = new LongAdder();
+	public static final LongAdder STEM_CACHE_MISSES = new LongAdder();
+	public static final LongAdder SPEED_CACHE_HITS = new LongAdder();
+	public static final LongAdder SPEED_CACHE_MISSES = new LongAdder();
+	public static final LongAdder BYTES_SYNCED = new LongAdder();
+	// Light checks bulk removal skipped compared to checking every removed block
+	public static final LongAdder AVOIDED_LIGHT_CHECKS = new LongAdder();
+
+	private static final ThreadLocal<long[]> THREAD_VISITED = ThreadLocal.withInitial(() -> new long[1]);
+
+	private TreeMetrics() {}
+
+	/**
+	 * Counts blocks visited by a scan on the current thread.
+	 */
+	public static void addVisited(long blocks) {
+		BLOCKS_VISITED.add(blocks);
+		THREAD_VISITED.get()[0] += blocks;
+	}
+
+	/**
+	 * @return the number of blocks visited by scans on the current thread so far, for measuring a single scan
+	 */
+	public static long getVisitedOnThread() {
+		return THREAD_VISITED.get()[0];
+	}
+
+	public static void reset() {
+		DESTROY_TREE.reset();
+		SCAN.reset();
+		REMOVAL.reset();
+		MINING_SPEED.reset();
+		ENTITY_TICK.reset();
+		for (LongAdder adder : new LongAdder[] {BLOCKS_VISITED, BLOCKS_COLLECTED, BLOCKS_REMOVED, DROP_STACKS, DROP_ITEMS,
+				STEM_CACHE_HITS, STEM_CACHE_MISSES, SPEED_CACHE_HITS, SPEED_CACHE_MISSES, BYTES_SYNCED, AVOIDED_LIGHT_CHECKS}) {
+			adder.reset();
+		}
+	}
+
+	public static final class Timer {
+		private static final int BUCKETS = 32;
+
+		private final LongAdder[] buckets = new LongAdder[BUCKETS];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		private Timer() {
+			for (int i = 0; i < BUCKETS; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		public void record(long nanos) {
+			long micros = Math.max(0, nanos / 1000);
+			buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))].increment();
+			count.increment();
+			totalNanos.add(nanos);
+			maxNanos.accumulateAndGet(nanos, Math::max);
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public double getAverageMillis() {
+			long count = getCount();
+			return count == 0 ? 0 : totalNanos.sum() / (double) count / 1_000_000;
+		}
+
+		public double getMaxMillis() {
+			return maxNanos.get() / 1_000_000d;
+		}
+
+		/**
+		 * @return the upper bound of the bucket holding the given percentile, in milliseconds
+		 */
+		public double getPercentileMillis(double percentile) {
+			long count = getCount();
+			if (count == 0) return 0;
+
+			long threshold = (long) Math.ceil(count * percentile);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += buckets[i].sum();
+				if (seen >= threshold)
+					return (1L << i) / 1000d;
+			}
+			return getMaxMillis();
+		}
+
+		private void reset() {
+			for (LongAdder bucket : buckets) {
+				bucket.reset();
+			}
+			count.reset();
+			totalNanos.reset();
+			maxNanos.set(0);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.utils.metrics;
+
+import jdk.jfr.*;
+
+@Name("fallingtrees.TreeRemoval")
+@Label("Tree Removal")
+@Category("Falling Trees")
+@Description("Removing the blocks of a felled tree from the level")
+@StackTrace(false)
+public class TreeRemovalEvent extends Event {
+	@Label("Blocks Removed")
+	public int blocksRemoved;
+
+	@Label("Sections")
+	public int sections;
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.utils.metrics;
+
+import jdk.jfr.*;
+
+@Name("fallingtrees.TreeScan")
+@Label("Tree Scan")
+@Category("Falling Trees")
+@Description("Gathering the blocks of a tree")
+@StackTrace(false)
+public class TreeScanEvent extends Event {
+	@Label("Tree Type")
+	public String treeType;
+
+	@Label("Blocks Visited")
+	public long blocksVisited;
+
+	@Label("Blocks Collected")
+	public int blocksCollected;
+
+	@Label("Off Thread")
+	public boolean async;
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.utils.scan;
+
+import com.mojang.logging.LogUtils;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.block.state.BlockState;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+
+/**
+ * Groups connected tree blocks of a server level into components, using union-find over packed positions.
+ * <p>
+ * Components are built lazily by the first query that touches them and are kept up to date from block changes: a new
+ * block next to an indexed component is merged into it, while removing an indexed block drops its whole component so
+ * the next query rebuilds it. Indexed positions are tracked per chunk, any component touching a chunk that unloads is
+ * dropped as well.
+ * <p>
+ * Components that turn out bigger than the size limit of a query are kept as a partial marker, so further queries fail
+ * fast instead of flooding the same forest again. A marker is only dropped by the same changes as a full component, so
+ * it can outlive the component shrinking below the limit; queries then fall back to a normal scan, which is slower but
+ * gives the same result.
+ * <p>
+ * Connectivity is symmetric, so the neighbour offsets given to an index are mirrored. All access has to happen on the
+ * server thread.
+ */
+public final class TreeConnectivityIndex {
+	private static final Logger LOGGER = LogUtils.getLogger();
+	private static final List<TreeConnectivityIndex> INDEXES = new CopyOnWriteArrayList<>();
+	private static final long NOT_INDEXED = Long.MAX_VALUE;
+
+	private final Predicate<BlockState> filter;
+	private final BlockPos[] neighbours;
+	private volatile Map<ServerLevel, LevelIndex> levels = new WeakHashMap<>();
+
+	private TreeConnectivityIndex(Predicate<BlockState> filter, BlockPos[] neighbours) {
+		this.filter = filter;
+		this.neighbours = mirror(neighbours);
+	}
+
+	/**
+	 * Creates an index for blocks matching the filter, connected through the given neighbour offsets. The index receives
+	 * block changes for as long as the game runs.
+	 */
+	public static TreeConnectivityIndex create(Predicate<BlockState> filter, BlockPos[] neighbours) {
+		TreeConnectivityIndex index = new TreeConnectivityIndex(filter, neighbours);
+		INDEXES.add(index);
+		return index;
+	}
+
+	/**
+	 * Returns every block connected to the given position, building the component if it is not indexed yet.
+	 *
+	 * @return the component, which must not be modified, or null if the position does not match the filter or the
+	 * component has more than {@code maxSize} blocks
+	 */
+	public @Nullable LongSet getComponent(ServerLevel level, BlockPos pos, int maxSize, TreeScanView view) {
+		LevelIndex index = levels.computeIfAbsent(level, l -> new LevelIndex());
+		long packedPos = pos.asLong();
+
+		Component component = index.getComponent(packedPos);
+		// A partial component that fits this query's limit was cut off at a smaller limit, so it is built again
+		if (component != null && !component.complete && component.members.size() <= maxSize) {
+			index.remove(index.find(packedPos));
+			component = null;
+		}
+		if (component == null) {
+			if (!filter.test(view.getBlockState(packedPos)))
+				return null;
+			component = build(index, view, packedPos, maxSize);
+		}
+		return component.complete && component.members.size() <= maxSize ? component.members : null;
+	}
+
+	private Component build(LevelIndex index, TreeScanView view, long origin, int maxSize) {
+		try (TreeScanner scanner = TreeScanner.acquire()) {
+			LongOpenHashSet members = scanner.newSet();
+			boolean[] tooBig = {false};
+			scanner.seed(origin, 0);
+			scanner.scan(view, neighbours, (pos, state, depth) -> {
+				if (tooBig[0] || !filter.test(state))
+					return false;
+
+				members.add(pos);
+				tooBig[0] = members.size() > maxSize;
+				return true;
+			});
+			return index.add(members, !tooBig[0]);
+		}
+	}
+
+	/**
+	 * Drops every component of this index, for when the filter may have changed. Unlike the rest of the index this can
+	 * be called from any thread.
+	 */
+	public void clear() {
+		levels = new WeakHashMap<>();
+	}
+
+	public static void onBlockStateChange(ServerLevel level, BlockPos pos, BlockState oldState, BlockState newState) {
+		if (oldState == newState || !level.getServer().isSameThread())
+			return;
+
+		for (TreeConnectivityIndex index : INDEXES) {
+			LevelIndex levelIndex = index.levels.get(level);
+			if (levelIndex == null || levelIndex.isEmpty())
+				continue;
+
+			long packedPos = pos.asLong();
+			boolean matches = index.filter.test(newState);
+			if (levelIndex.isIndexed(packedPos)) {
+				if (!matches)
+					levelIndex.remove(levelIndex.find(packedPos));
+			} else if (matches) {
+				levelIndex.attach(packedPos, index.neighbours);
+			}
+		}
+	}
+
+	public static void onChunkUnload(ServerLevel level, ChunkPos chunkPos) {
+		for (TreeConnectivityIndex index : INDEXES) {
+			LevelIndex levelIndex = index.levels.get(level);
+			if (levelIndex != null)
+				levelIndex.unloadChunk(chunkPos.toLong());
+		}
+	}
+
+	public static void onLevelUnload(ServerLevel level) {
+		for (TreeConnectivityIndex index : INDEXES) {
+			LevelIndex levelIndex = index.levels.remove(level);
+			if (levelIndex != null && !levelIndex.isEmpty())
+				LOGGER.debug("Dropped tree connectivity index of {} with {} blocks in {} components (~{} KiB)",
+						level.dimension().location(), levelIndex.indexedCount(), levelIndex.components.size(),
+						levelIndex.estimateMemoryUsage() / 1024);
+		}
+	}
+
+	public static void clearAll() {
+		INDEXES.forEach(TreeConnectivityIndex::clear);
+	}
+
+	/**
+	 * @return the number of indexed blocks across all indexes and levels
+	 */
+	public static int getIndexedCount() {
+		int count = 0;
+		for (TreeConnectivityIndex index : INDEXES) {
+			for (LevelIndex levelIndex : index.levels.values()) {
+				count += levelIndex.indexedCount();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return a rough estimate of the heap used by all indexes, in bytes
+	 */
+	public static long estimateMemoryUsage() {
+		long bytes = 0;
+		for (TreeConnectivityIndex index : INDEXES) {
+			for (LevelIndex levelIndex : index.levels.values()) {
+				bytes += levelIndex.estimateMemoryUsage();
+			}
+		}
+		return bytes;
+	}
+
+	private static BlockPos[] mirror(BlockPos[] offsets) {
+		Set<BlockPos> mirrored = new LinkedHashSet<>(Arrays.asList(offsets));
+		for (BlockPos offset : offsets) {
+			mirrored.add(new BlockPos(-offset.getX(), -offset.getY(), -offset.getZ()));
+		}
+		return mirrored.toArray(BlockPos[]::new);
+	}
+
+	private static final class Component {
+		private final LongOpenHashSet members;
+		// False for the marker of a component that was cut off at the size limit
+		private boolean complete;
+
+		private Component(LongOpenHashSet members, boolean complete) {
+			this.members = members;
+			this.complete = complete;
+		}
+	}
+
+	private static final class LevelIndex {
+		private final Long2LongOpenHashMap parents = new Long2LongOpenHashMap();
+		private final Long2ObjectOpenHashMap<Component> components = new Long2ObjectOpenHashMap<>();
+		private final Long2ObjectOpenHashMap<LongOpenHashSet> chunks = new Long2ObjectOpenHashMap<>();
+
+		private LevelIndex() {
+			parents.defaultReturnValue(NOT_INDEXED);
+		}
+
+		private boolean isEmpty() {
+			return parents.isEmpty();
+		}
+
+		private boolean isIndexed(long pos) {
+			return parents.get(pos) != NOT_INDEXED;
+		}
+
+		private int indexedCount() {
+			return parents.size();
+		}
+
+		private long find(long pos) {
+			long parent = parents.get(pos);
+			while (parent != pos) {
+				long grandParent = parents.get(parent);
+				parents.put(pos, grandParent);
+				pos = parent;
+				parent = grandParent;
+			}
+			return pos;
+		}
+
+		private @Nullable Component getComponent(long pos) {
+			return isIndexed(pos) ? components.get(find(pos)) : null;
+		}
+
+		/**
+		 * Adds the members of a freshly flooded component. A flood can run into blocks of a partial marker without
+		 * starting at one of them, those components are dropped first so no position ends up in two components.
+		 */
+		private Component add(LongSet members, boolean complete) {
+			LongOpenHashSet ownMembers = new LongOpenHashSet(members);
+			LongIterator iterator = ownMembers.iterator();
+			while (iterator.hasNext()) {
+				long pos = iterator.nextLong();
+				if (isIndexed(pos))
+					remove(find(pos));
+			}
+
+			iterator = ownMembers.iterator();
+			long root = iterator.nextLong();
+			track(root, root);
+			while (iterator.hasNext()) {
+				track(iterator.nextLong(), root);
+			}
+
+			Component component = new Component(ownMembers, complete);
+			components.put(root, component);
+			return component;
+		}
+
+		/**
+		 * Adds a position to every indexed component next to it, merging them. Positions without an indexed neighbour are
+		 * left for the next query to pick up.
+		 */
+		private void attach(long pos, BlockPos[] neighbours) {
+			long root = NOT_INDEXED;
+			for (BlockPos offset : neighbours) {
+				long neighbour = BlockPos.offset(pos, offset.getX(), offset.getY(), offset.getZ());
+				if (!isIndexed(neighbour))
+					continue;
+
+				long neighbourRoot = find(neighbour);
+				Component component = components.get(neighbourRoot);
+				if (component == null) {
+					// Should not happen, but a stale position must not take the server thread down
+					LOGGER.warn("Dropping {} from the tree connectivity index, its component is missing", BlockPos.of(neighbour));
+					untrack(neighbour);
+					continue;
+				}
+
+				if (root == NOT_INDEXED) {
+					root = neighbourRoot;
+					track(pos, root);
+					component.members.add(pos);
+				} else if (neighbourRoot != root) {
+					root = union(root, neighbourRoot);
+				}
+			}
+		}
+
+		private long union(long a, long b) {
+			Component componentA = components.get(a);
+			Component componentB = components.get(b);
+			if (componentA.members.size() < componentB.members.size())
+				return union(b, a);
+
+			parents.put(b, a);
+			componentA.members.addAll(componentB.members);
+			componentA.complete &= componentB.complete;
+			components.remove(b);
+			return a;
+		}
+
+		private void remove(long root) {
+			Component component = components.remove(root);
+			if (component == null)
+				return;
+
+			LongIterator iterator = component.members.iterator();
+			while (iterator.hasNext()) {
+				untrack(iterator.nextLong());
+			}
+		}
+
+		private void unloadChunk(long chunkKey) {
+			LongOpenHashSet chunk = chunks.get(chunkKey);
+			while (chunk != null && !chunk.isEmpty()) {
+				remove(find(chunk.iterator().nextLong()));
+				chunk = chunks.get(chunkKey);
+			}
+		}
+
+		private void track(long pos, long root) {
+			parents.put(pos, root);
+			chunks.computeIfAbsent(chunkKey(pos), key -> new LongOpenHashSet()).add(pos);
+		}
+
+		private void untrack(long pos) {
+			parents.remove(pos);
+			long chunkKey = chunkKey(pos);
+			LongOpenHashSet chunk = chunks.get(chunkKey);
+			if (chunk != null && chunk.remove(pos) && chunk.isEmpty())
+				chunks.remove(chunkKey);
+		}
+
+		private long estimateMemoryUsage() {
+			// Open hash maps keep roughly a third of their slots free, every long slot costs 8 bytes
+			long bytes = parents.size() * 16L * 4 / 3;
+			for (Component component : components.values()) {
+				bytes += component.members.size() * 8L * 4 / 3;
+			}
+			for (LongOpenHashSet chunk : chunks.values()) {
+				bytes += chunk.size() * 8L * 4 / 3 + 48;
+			}
+			return bytes;
+		}
+
+		private static long chunkKey(long pos) {
+			return ChunkPos.asLong(SectionPos.blockToSectionCoord(BlockPos.getX(pos)), SectionPos.blockToSectionCoord(BlockPos.getZ(pos)));
+		}
+	}
+}
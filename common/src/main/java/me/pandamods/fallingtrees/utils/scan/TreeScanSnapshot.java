@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.utils.scan;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Immutable copy of the chunk sections around a position, safe to scan from any thread.
+ * <p>
+ * The level is still exposed through {@link #getLevel()} so drops can be rolled later, but it is never read by the
+ * snapshot itself. Reads outside the captured sections return air and mark the snapshot as {@link #isTruncated() truncated}.
+ */
+public class TreeScanSnapshot extends TreeScanView {
+	private volatile boolean truncated = false;
+
+	private TreeScanSnapshot(ServerLevel level) {
+		super(level, level.getMinY(), level.getHeight());
+	}
+
+	/**
+	 * Copies every loaded section within {@code chunkRadius} chunks of the origin, from {@code sectionsBelow} sections
+	 * under the origin's section to {@code sectionsAbove} sections over it. Has to be called on the server thread.
+	 */
+	public static TreeScanSnapshot capture(ServerLevel level, BlockPos origin, int chunkRadius, int sectionsBelow, int sectionsAbove) {
+		TreeScanSnapshot snapshot = new TreeScanSnapshot(level);
+		int originX = SectionPos.blockToSectionCoord(origin.getX());
+		int originY = SectionPos.blockToSectionCoord(origin.getY());
+		int originZ = SectionPos.blockToSectionCoord(origin.getZ());
+		int minSectionY = Math.max(level.getMinSectionY(), originY - sectionsBelow);
+		int maxSectionY = Math.min(level.getMaxSectionY(), originY + sectionsAbove);
+
+		for (int chunkX = originX - chunkRadius; chunkX <= originX + chunkRadius; chunkX++) {
+			for (int chunkZ = originZ - chunkRadius; chunkZ <= originZ + chunkRadius; chunkZ++) {
+				LevelChunk chunk = level.getChunkSource().getChunkNow(chunkX, chunkZ);
+				if (chunk == null)
+					continue;
+
+				for (int sectionY = minSectionY; sectionY <= maxSectionY; sectionY++) {
+					LevelChunkSection section = chunk.getSection(chunk.getSectionIndexFromSectionY(sectionY));
+					snapshot.putSection(SectionPos.asLong(chunkX, sectionY, chunkZ),
+							section.hasOnlyAir() ? null : section.getStates().copy());
+				}
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return true if a scan tried to read outside the captured sections, in which case its result may be incomplete
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	@Override
+	protected @Nullable PalettedContainer<BlockState> loadSection(long sectionKey) {
+		truncated = true;
+		return null;
+	}
+
+	@Override
+	public @Nullable BlockEntity getBlockEntity(BlockPos pos) {
+		return null;
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.utils.scan;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.BlockGetter;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.EmptyLevelChunk;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.material.FluidState;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Block getter used by tree scans. It resolves every chunk section a scan touches once and then reads block states
+ * straight from the section palette, instead of going through a chunk lookup on every {@link Level#getBlockState} call.
+ * <p>
+ * Views are meant to live for a single scan.
+ */
+public class TreeScanView implements BlockGetter {
+	private static final BlockState AIR = Blocks.AIR.defaultBlockState();
+	private static final BlockState VOID_AIR = Blocks.VOID_AIR.defaultBlockState();
+
+	private final @Nullable Level level;
+	private final int minY;
+	private final int height;
+	private final Long2ObjectOpenHashMap<PalettedContainer<BlockState>> sections = new Long2ObjectOpenHashMap<>();
+
+	private long lastSectionKey = Long.MAX_VALUE;
+	private PalettedContainer<BlockState> lastSection = null;
+
+	public TreeScanView(@NotNull Level level) {
+		this(level, level.getMinY(), level.getHeight());
+	}
+
+	protected TreeScanView(@Nullable Level level, int minY, int height) {
+		this.level = level;
+		this.minY = minY;
+		this.height = height;
+	}
+
+	/**
+	 * @return the level backing this view, or null for views that are not attached to a level
+	 */
+	public @Nullable Level getLevel() {
+		return level;
+	}
+
+	public BlockState getBlockState(long pos) {
+		int y = BlockPos.getY(pos);
+		if (this.isOutsideBuildHeight(y))
+			return VOID_AIR;
+
+		int x = BlockPos.getX(pos);
+		int z = BlockPos.getZ(pos);
+		long sectionKey = SectionPos.asLong(SectionPos.blockToSectionCoord(x), SectionPos.blockToSectionCoord(y), SectionPos.blockToSectionCoord(z));
+		PalettedContainer<BlockState> section = sectionKey == lastSectionKey ? lastSection : resolveSection(sectionKey);
+		return section == null ? AIR : section.get(x & 15, y & 15, z & 15);
+	}
+
+	@Override
+	public @NotNull BlockState getBlockState(BlockPos pos) {
+		return getBlockState(pos.asLong());
+	}
+
+	@Override
+	public @NotNull FluidState getFluidState(BlockPos pos) {
+		return getBlockState(pos.asLong()).getFluidState();
+	}
+
+	@Override
+	public @Nullable BlockEntity getBlockEntity(BlockPos pos) {
+		return level != null ? level.getBlockEntity(pos) : null;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getMinY() {
+		return minY;
+	}
+
+	private PalettedContainer<BlockState> resolveSection(long sectionKey) {
+		PalettedContainer<BlockState> section = sections.get(sectionKey);
+		if (section == null && !sections.containsKey(sectionKey)) {
+			section = loadSection(sectionKey);
+			sections.put(sectionKey, section);
+		}
+		lastSectionKey = sectionKey;
+		lastSection = section;
+		return section;
+	}
+
+	/**
+	 * Loads the block states of a section that has not been touched by this view yet.
+	 *
+	 * @return the section's block states, or null if the section only contains air
+	 */
+	protected @Nullable PalettedContainer<BlockState> loadSection(long sectionKey) {
+		if (level == null)
+			return null;
+
+		LevelChunk chunk = level.getChunk(SectionPos.x(sectionKey), SectionPos.z(sectionKey));
+		if (chunk instanceof EmptyLevelChunk)
+			return null;
+
+		LevelChunkSection section = chunk.getSection(chunk.getSectionIndexFromSectionY(SectionPos.y(sectionKey)));
+		return section.hasOnlyAir() ? null : section.getStates();
+	}
+
+	/**
+	 * Makes a section available to the view without touching the level, used by views that are filled up front.
+	 */
+	protected void putSection(long sectionKey, @Nullable PalettedContainer<BlockState> states) {
+		sections.put(sectionKey, states);
+		if (sectionKey == lastSectionKey)
+			lastSection = states;
+	}
+
+	public int cachedSectionCount() {
+		return sections.size();
+	}
+}
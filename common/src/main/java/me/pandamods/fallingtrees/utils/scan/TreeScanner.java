@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.utils.scan;
+
+import me.pandamods.fallingtrees.utils.metrics.TreeMetrics;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.world.level.BlockGetter;
+import net.minecraft.world.level.block.state.BlockState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reusable breadth-first flood fill over packed {@link BlockPos#asLong()} positions.
+ * <p>
+ * Scanners are pooled per thread, so a tree scan only allocates for the blocks it ends up collecting.
+ * Always acquire them with try-with-resources so the scratch state is cleared for the next scan.
+ */
+public final class TreeScanner implements AutoCloseable {
+	public static final BlockPos[] FACES = offsetsOf(Direction.values());
+	public static final BlockPos[] HORIZONTAL_FACES = offsetsOf(Direction.NORTH, Direction.EAST, Direction.SOUTH, Direction.WEST);
+	public static final BlockPos[] UP = offsetsOf(Direction.UP);
+	public static final BlockPos[] DOWN = offsetsOf(Direction.DOWN);
+	public static final BlockPos[] LOG_NEIGHBOURS = boxOffsets(-1, 0, -1, 1, 1, 1);
+
+	private static final int RETAINED_CAPACITY = 1 << 14;
+	private static final ThreadLocal<TreeScanner> POOL = ThreadLocal.withInitial(TreeScanner::new);
+
+	private final LongArrayFIFOQueue queue = new LongArrayFIFOQueue();
+	private final IntArrayFIFOQueue depths = new IntArrayFIFOQueue();
+	private final LongOpenHashSet visited = new LongOpenHashSet();
+	private final List<LongOpenHashSet> sets = new ArrayList<>();
+	private final BlockPos.MutableBlockPos cursor = new BlockPos.MutableBlockPos();
+	private int depth = 0;
+	private long visits = 0;
+	private int usedSets = 0;
+	private boolean inUse = false;
+
+	private TreeScanner() {}
+
+	public static TreeScanner acquire() {
+		TreeScanner scanner = POOL.get();
+		if (scanner.inUse)
+			scanner = new TreeScanner();
+		scanner.inUse = true;
+		return scanner;
+	}
+
+	/**
+	 * Returns an empty scratch set owned by this scanner. It stays valid until the scanner is closed.
+	 */
+	public LongOpenHashSet newSet() {
+		if (usedSets == sets.size())
+			sets.add(new LongOpenHashSet());
+		LongOpenHashSet set = sets.get(usedSets++);
+		set.clear();
+		return set;
+	}
+
+	public TreeScanner seed(long pos, int depth) {
+		if (visited.add(pos)) {
+			queue.enqueue(pos);
+			depths.enqueue(depth);
+		}
+		return this;
+	}
+
+	public TreeScanner seed(BlockPos pos) {
+		return seed(pos.asLong(), 0);
+	}
+
+	public boolean hasNext() {
+		return !queue.isEmpty();
+	}
+
+	/**
+	 * Polls the next queued position for scans that expand neighbours themselves, see {@link #depth()}.
+	 */
+	public long next() {
+		visits++;
+		depth = depths.dequeueInt();
+		return queue.dequeueLong();
+	}
+
+	public int depth() {
+		return depth;
+	}
+
+	public void resetVisited() {
+		queue.clear();
+		depths.clear();
+		visited.clear();
+	}
+
+	public boolean isVisited(long pos) {
+		return visited.contains(pos);
+	}
+
+	public int visitedCount() {
+		return visited.size();
+	}
+
+	/**
+	 * Runs the flood fill from every seeded position. Neighbours are only queued when the visitor accepts the current
+	 * position and the next depth does not exceed {@code maxDepth}.
+	 */
+	public void scan(BlockGetter level, BlockPos[] offsets, int maxDepth, Visitor visitor) {
+		while (hasNext()) {
+			long current = next();
+
+			if (!visitor.visit(current, getBlockState(level, current), depth) || depth >= maxDepth)
+				continue;
+
+			for (BlockPos offset : offsets) {
+				long neighbor = BlockPos.offset(current, offset.getX(), offset.getY(), offset.getZ());
+				if (visited.add(neighbor)) {
+					queue.enqueue(neighbor);
+					depths.enqueue(depth + 1);
+				}
+			}
+		}
+	}
+
+	public void scan(BlockGetter level, BlockPos[] offsets, Visitor visitor) {
+		scan(level, offsets, Integer.MAX_VALUE, visitor);
+	}
+
+	public BlockState getBlockState(BlockGetter level, long pos) {
+		if (level instanceof TreeScanView view)
+			return view.getBlockState(pos);
+		return level.getBlockState(cursor.set(pos));
+	}
+
+	@Override
+	public void close() {
+		TreeMetrics.addVisited(visits);
+		visits = 0;
+		resetVisited();
+		visited.trim(RETAINED_CAPACITY);
+		for (int i = 0; i < usedSets; i++) {
+			LongOpenHashSet set = sets.get(i);
+			set.clear();
+			set.trim(RETAINED_CAPACITY);
+		}
+		usedSets = 0;
+		depth = 0;
+		cursor.set(0, 0, 0);
+		inUse = false;
+	}
+
+	public static List<BlockPos> toBlockPosList(LongSet positions) {
+		List<BlockPos> list = new ArrayList<>(positions.size());
+		addBlockPositions(positions, list);
+		return list;
+	}
+
+	public static void addBlockPositions(LongSet positions, Collection<BlockPos> collection) {
+		LongIterator iterator = positions.iterator();
+		while (iterator.hasNext()) {
+			collection.add(BlockPos.of(iterator.nextLong()));
+		}
+	}
+
+	private static BlockPos[] offsetsOf(Direction... directions) {
+		BlockPos[] offsets = new BlockPos[directions.length];
+		for (int i = 0; i < directions.length; i++) {
+			offsets[i] = BlockPos.ZERO.relative(directions[i]);
+		}
+		return offsets;
+	}
+
+	private static BlockPos[] boxOffsets(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		List<BlockPos> offsets = new ArrayList<>();
+		for (BlockPos offset : BlockPos.betweenClosed(minX, minY, minZ, maxX, maxY, maxZ)) {
+			if (!offset.equals(BlockPos.ZERO))
+				offsets.add(offset.immutable());
+		}
+		return offsets.toArray(BlockPos[]::new);
+	}
+
+	@FunctionalInterface
+	public interface Visitor {
+		/**
+		 * @return true to keep expanding from this position
+		 */
+		boolean visit(long pos, BlockState state, int depth);
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.world;
+
+import dev.architectury.networking.NetworkManager;
+import me.pandamods.fallingtrees.api.TreeType;
+import me.pandamods.fallingtrees.config.CommonConfig;
+import me.pandamods.fallingtrees.config.FallingTreesConfig;
+import me.pandamods.fallingtrees.entity.TreeEntity;
+import me.pandamods.fallingtrees.network.FallingTreeBatchPayload;
+import me.pandamods.fallingtrees.registry.EntityRegistry;
+import me.pandamods.fallingtrees.registry.TreeRegistry;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Runs falling trees without a server side entity, as an alternative to {@link TreeEntity}.
+ * <p>
+ * Active falls of a level are kept in parallel arrays and ticked in one loop. {@link TreeType#onTreeTick} is still
+ * called every tick, with a single {@link TreeEntity} that is never added to the level and is pointed at each fall in
+ * turn. Falls started and ended since the last sync are sent in one {@link FallingTreeBatchPayload} per player, and
+ * clients play them as local entities. Felling syncs right before removing the blocks so the fall shows up first, the
+ * rest goes out at the end of the tick. Players that come into range during a fall do not see it, just like they would not see
+ * the blocks anymore.
+ */
+public class FallingTreeManager {
+	private static final Map<ServerLevel, FallingTreeManager> MANAGERS = new HashMap<>();
+	private static int nextId = 1;
+
+	private final ServerLevel level;
+	private final TreeEntity view;
+
+	private int size = 0;
+	private int[] ids = new int[16];
+	private long[] origins = new long[16];
+	private int[] ages = new int[16];
+	private byte[] directions = new byte[16];
+	private TreeType[] types = new TreeType[16];
+	private Object[] blocks = new Object[16];
+	private Object[] drops = new Object[16];
+	private Entity[] owners = new Entity[16];
+
+	private final List<FallingTreeBatchPayload.Spawn> spawned = new ArrayList<>();
+	private final IntArrayList despawned = new IntArrayList();
+
+	private FallingTreeManager(ServerLevel level) {
+		this.level = level;
+		this.view = new TreeEntity(EntityRegistry.TREE.get(), level);
+	}
+
+	public static boolean isEnabled() {
+		return FallingTreesConfig.getCommonConfig().fallingTreeBackend == CommonConfig.FallingTreeBackend.MANAGER;
+	}
+
+	/**
+	 * Starts a falling tree, it reads the block states from the level so it has to happen before they are removed.
+	 */
+	public static void add(ServerLevel level, TreeType tree, BlockPos origin, @Nullable Entity owner,
+						   List<BlockPos> blockList, List<ItemStack> drops) {
+		FallingTreeManager manager = MANAGERS.computeIfAbsent(level, FallingTreeManager::new);
+		Map<BlockPos, BlockState> blocks = TreeEntity.captureBlocks(level, origin, blockList);
+		Direction direction = TreeEntity.getFallDirection(owner, origin, level.getRandom());
+		ResourceLocation treeLocation = TreeRegistry.getTreeLocation(tree);
+
+		int id = nextId++;
+		manager.push(id, origin.asLong(), direction, tree, blocks, drops, owner);
+		manager.spawned.add(new FallingTreeBatchPayload.Spawn(id, origin.immutable(), direction,
+				treeLocation != null ? treeLocation.toString() : "", blocks));
+	}
+
+	public static int getActiveCount() {
+		int count = 0;
+		for (FallingTreeManager manager : MANAGERS.values()) {
+			count += manager.size;
+		}
+		return count;
+	}
+
+	public static void tick(ServerLevel level) {
+		FallingTreeManager manager = MANAGERS.get(level);
+		if (manager == null) return;
+
+		manager.tickFalls();
+		manager.sync();
+		if (manager.size == 0)
+			MANAGERS.remove(level);
+	}
+
+	/**
+	 * Sends the falls started and ended since the last sync of the level.
+	 */
+	public static void sendPending(ServerLevel level) {
+		FallingTreeManager manager = MANAGERS.get(level);
+		if (manager != null)
+			manager.sync();
+	}
+
+	/**
+	 * Ends every fall of the level right away, handing their drops to the {@link TreeDropSpawner}.
+	 */
+	@SuppressWarnings("unchecked")
+	public static void clear(ServerLevel level) {
+		FallingTreeManager manager = MANAGERS.remove(level);
+		if (manager == null) return;
+
+		for (int i = 0; i < manager.size; i++) {
+			TreeDropSpawner.dropItems(level, Vec3.atBottomCenterOf(BlockPos.of(manager.origins[i])),
+					(List<ItemStack>) manager.drops[i], manager.owners[i]);
+		}
+	}
+
+	public static void clearAll() {
+		new ArrayList<>(MANAGERS.keySet()).forEach(FallingTreeManager::clear);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void tickFalls() {
+		int lifetime = view.getMaxLifeTimeTick();
+		for (int i = 0; i < size; i++) {
+			int age = ++ages[i];
+			BlockPos origin = BlockPos.of(origins[i]);
+			view.setManagedData(owners[i], types[i], origin, Direction.from3DDataValue(directions[i]),
+					(Map<BlockPos, BlockState>) blocks[i], age);
+			types[i].onTreeTick(view);
+
+			if (age >= lifetime) {
+				TreeDropSpawner.dropItems(level, Vec3.atBottomCenterOf(origin), (List<ItemStack>) drops[i], owners[i]);
+				despawned.add(ids[i]);
+				removeAt(i--);
+			}
+		}
+		view.setManagedData(null, null, BlockPos.ZERO, Direction.NORTH, Collections.emptyMap(), 0);
+	}
+
+	private void sync() {
+		if (spawned.isEmpty() && despawned.isEmpty()) return;
+
+		// Despawns are a few bytes and clients ignore unknown ids, so every player in the level gets all of them
+		List<Integer> despawns = List.copyOf(despawned);
+		double range = Math.max(1, FallingTreesConfig.getCommonConfig().entityTracking.clientTrackingRange) * 16;
+		for (ServerPlayer player : level.players()) {
+			List<FallingTreeBatchPayload.Spawn> spawns = new ArrayList<>();
+			for (FallingTreeBatchPayload.Spawn spawn : spawned) {
+				BlockPos origin = spawn.origin();
+				if (player.distanceToSqr(origin.getX() + 0.5, player.getY(), origin.getZ() + 0.5) <= range * range)
+					spawns.add(spawn);
+			}
+			if (!spawns.isEmpty() || !despawns.isEmpty())
+				NetworkManager.sendToPlayer(player, new FallingTreeBatchPayload(spawns, despawns));
+		}
+		spawned.clear();
+		despawned.clear();
+	}
+
+	private void push(int id, long origin, Direction direction, TreeType tree, Map<BlockPos, BlockState> blockMap,
+					  List<ItemStack> dropList, @Nullable Entity owner) {
+		if (size == ids.length) {
+			int capacity = size * 2;
+			ids = Arrays.copyOf(ids, capacity);
+			origins = Arrays.copyOf(origins, capacity);
+			ages = Arrays.copyOf(ages, capacity);
+			directions = Arrays.copyOf(directions, capacity);
+			types = Arrays.copyOf(types, capacity);
+			blocks = Arrays.copyOf(blocks, capacity);
+			drops = Arrays.copyOf(drops, capacity);
+			owners = Arrays.copyOf(owners, capacity);
+		}
+		ids[size] = id;
+		origins[size] = origin;
+		ages[size] = 0;
+		directions[size] = (byte) direction.get3DDataValue();
+		types[size] = tree;
+		blocks[size] = blockMap;
+		drops[size] = dropList;
+		owners[size] = owner;
+		size++;
+	}
+
+	/**
+	 * Moves the last fall into the given slot, the order of falls does not matter.
+	 */
+	private void removeAt(int index) {
+		int last = --size;
+		ids[index] = ids[last];
+		origins[index] = origins[last];
+		ages[index] = ages[last];
+		directions[index] = directions[last];
+		types[index] = types[last];
+		blocks[index] = blocks[last];
+		drops[index] = drops[last];
+		owners[index] = owners[last];
+		types[last] = null;
+		blocks[last] = null;
+		drops[last] = null;
+		owners[last] = null;
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.world;
+
+import me.pandamods.fallingtrees.utils.scan.TreeScanView;
+import me.pandamods.fallingtrees.utils.scan.TreeScanner;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.LeavesBlock;
+import net.minecraft.world.level.block.state.BlockState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.OptionalInt;
+
+/**
+ * Finds the leaves that would start decaying once a felled tree is removed, so they can be removed along with it.
+ * <p>
+ * Only non-persistent leaves connected through leaves to the removed blocks, within the decay distance, can lose their
+ * support. Their {@link LeavesBlock#DISTANCE} is recomputed as if the removed blocks were air, starting from the logs
+ * and the unaffected leaves around them. Leaves that end up at the decay distance are orphaned.
+ */
+public class OrphanedLeafSweep {
+	private static final int DECAY_DISTANCE = LeavesBlock.DECAY_DISTANCE;
+
+	/**
+	 * Has to be called before the removed blocks are actually removed.
+	 */
+	public static List<BlockPos> findOrphanedLeaves(Level level, Collection<BlockPos> removed) {
+		TreeScanView view = new TreeScanView(level);
+		try (TreeScanner scanner = TreeScanner.acquire()) {
+			LongOpenHashSet removedPositions = scanner.newSet();
+			for (BlockPos pos : removed) {
+				removedPositions.add(pos.asLong());
+				scanner.seed(pos.asLong(), 0);
+			}
+
+			Long2IntOpenHashMap distances = new Long2IntOpenHashMap();
+			scanner.scan(view, TreeScanner.FACES, DECAY_DISTANCE - 1, (pos, state, depth) -> {
+				if (depth == 0)
+					return true;
+				if (!isDecayingLeaf(state))
+					return false;
+				distances.put(pos, DECAY_DISTANCE);
+				return true;
+			});
+			if (distances.isEmpty())
+				return List.of();
+
+			LongArrayFIFOQueue[] queues = new LongArrayFIFOQueue[DECAY_DISTANCE];
+			for (int i = 0; i < DECAY_DISTANCE; i++) {
+				queues[i] = new LongArrayFIFOQueue();
+			}
+
+			// Supported leaves start from their unaffected neighbours, the rest is filled in from the closest ones first
+			for (Long2IntMap.Entry entry : distances.long2IntEntrySet()) {
+				long pos = entry.getLongKey();
+				int distance = DECAY_DISTANCE;
+				for (BlockPos offset : TreeScanner.FACES) {
+					long neighbour = BlockPos.offset(pos, offset.getX(), offset.getY(), offset.getZ());
+					if (removedPositions.contains(neighbour) || distances.containsKey(neighbour))
+						continue;
+
+					OptionalInt neighbourDistance = LeavesBlock.getOptionalDistanceAt(view.getBlockState(neighbour));
+					if (neighbourDistance.isPresent())
+						distance = Math.min(distance, neighbourDistance.getAsInt() + 1);
+				}
+				if (distance < DECAY_DISTANCE) {
+					entry.setValue(distance);
+					queues[distance].enqueue(pos);
+				}
+			}
+
+			for (int distance = 1; distance < DECAY_DISTANCE - 1; distance++) {
+				LongArrayFIFOQueue queue = queues[distance];
+				while (!queue.isEmpty()) {
+					long pos = queue.dequeueLong();
+					if (distances.get(pos) != distance)
+						continue;
+
+					for (BlockPos offset : TreeScanner.FACES) {
+						long neighbour = BlockPos.offset(pos, offset.getX(), offset.getY(), offset.getZ());
+						if (distances.containsKey(neighbour) && distances.get(neighbour) > distance + 1) {
+							distances.put(neighbour, distance + 1);
+							queues[distance + 1].enqueue(neighbour);
+						}
+					}
+				}
+			}
+
+			List<BlockPos> orphaned = new ArrayList<>();
+			for (Long2IntMap.Entry entry : distances.long2IntEntrySet()) {
+				if (entry.getIntValue() >= DECAY_DISTANCE)
+					orphaned.add(BlockPos.of(entry.getLongKey()));
+			}
+			return orphaned;
+		}
+	}
+
+	/**
+	 * Splits orphaned leaves between trees that are removed together. Every leaf goes to the tree it is closest to
+	 * through other orphaned leaves, ties go to the earlier tree. Leaves that cannot be reached that way go to the first
+	 * tree.
+	 *
+	 * @return the orphaned leaves of each tree, in the order of the given trees
+	 */
+	public static List<List<BlockPos>> assignToTrees(List<? extends Collection<BlockPos>> trees, List<BlockPos> orphaned) {
+		Long2IntOpenHashMap owners = new Long2IntOpenHashMap(orphaned.size());
+		owners.defaultReturnValue(-1);
+		orphaned.forEach(pos -> owners.put(pos.asLong(), -1));
+
+		LongArrayFIFOQueue queue = new LongArrayFIFOQueue();
+		for (int tree = 0; tree < trees.size(); tree++) {
+			for (BlockPos pos : trees.get(tree)) {
+				claimNeighbours(pos.asLong(), tree, owners, queue);
+			}
+		}
+		while (!queue.isEmpty()) {
+			long pos = queue.dequeueLong();
+			claimNeighbours(pos, owners.get(pos), owners, queue);
+		}
+
+		List<List<BlockPos>> assigned = new ArrayList<>(trees.size());
+		for (int tree = 0; tree < trees.size(); tree++) {
+			assigned.add(new ArrayList<>());
+		}
+		for (BlockPos pos : orphaned) {
+			assigned.get(Math.max(0, owners.get(pos.asLong()))).add(pos);
+		}
+		return assigned;
+	}
+
+	private static void claimNeighbours(long pos, int tree, Long2IntOpenHashMap owners, LongArrayFIFOQueue queue) {
+		for (BlockPos offset : TreeScanner.FACES) {
+			long neighbour = BlockPos.offset(pos, offset.getX(), offset.getY(), offset.getZ());
+			if (owners.containsKey(neighbour) && owners.get(neighbour) == -1) {
+				owners.put(neighbour, tree);
+				queue.enqueue(neighbour);
+			}
+		}
+	}
+
+	private static boolean isDecayingLeaf(BlockState state) {
+		return state.hasProperty(LeavesBlock.DISTANCE) && state.hasProperty(LeavesBlock.PERSISTENT) &&
+				!state.getValue(LeavesBlock.PERSISTENT);
+	}
+}
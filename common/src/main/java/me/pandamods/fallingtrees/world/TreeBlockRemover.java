@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.world;
+
+import me.pandamods.fallingtrees.mixin.accessor.ServerLevelAccessor;
+import me.pandamods.fallingtrees.utils.metrics.TreeMetrics;
+import me.pandamods.fallingtrees.utils.metrics.TreeRemovalEvent;
+import me.pandamods.fallingtrees.utils.scan.TreeConnectivityIndex;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.shorts.ShortArrayList;
+import it.unimi.dsi.fastutil.shorts.ShortIterator;
+import it.unimi.dsi.fastutil.shorts.ShortOpenHashSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.core.SectionPos;
+import net.minecraft.network.protocol.game.ClientboundSectionBlocksUpdatePacket;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.Mob;
+import net.minecraft.world.entity.ai.navigation.PathNavigation;
+import net.minecraft.world.entity.ai.village.poi.PoiTypes;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.Heightmap;
+import net.minecraft.world.level.lighting.LevelLightEngine;
+import net.minecraft.world.level.lighting.LightEngine;
+import net.minecraft.world.level.pathfinder.PathTypeCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+/**
+ * Removes the blocks of a felled tree in bulk. Blocks are grouped by chunk section and written straight into the
+ * section, heightmaps are updated once per column, and clients get one section update packet per section. Light is only
+ * rechecked where it can enter or leave the removed region.
+ */
+public final class TreeBlockRemover {
+	private static final BlockState AIR = Blocks.AIR.defaultBlockState();
+	private static final Direction[] UPDATE_ORDER = {Direction.WEST, Direction.EAST, Direction.NORTH, Direction.SOUTH, Direction.DOWN, Direction.UP};
+
+	private TreeBlockRemover() {}
+
+	/**
+	 * Replaces the blocks with air without dropping anything.
+	 *
+	 * @return the states that were removed, positions that already were air are left out
+	 */
+	public static Map<BlockPos, BlockState> removeBlocks(ServerLevel level, Collection<BlockPos> blocks) {
+		return removeBlocks(level, blocks, pos -> false);
+	}
+
+	/**
+	 * Replaces the blocks with air without dropping anything. Neighbours matching {@code pending} are about to be removed
+	 * as well, they get no shape or neighbour updates so leaves among them do not recompute their distance.
+	 *
+	 * @return the states that were removed, positions that already were air are left out
+	 */
+	public static Map<BlockPos, BlockState> removeBlocks(ServerLevel level, Collection<BlockPos> blocks, LongPredicate pending) {
+		TreeRemovalEvent event = new TreeRemovalEvent();
+		event.begin();
+		long start = System.nanoTime();
+
+		Long2ObjectOpenHashMap<ShortArrayList> sections = new Long2ObjectOpenHashMap<>();
+		for (BlockPos pos : blocks) {
+			sections.computeIfAbsent(SectionPos.blockToSection(pos.asLong()), key -> new ShortArrayList())
+					.add(SectionPos.sectionRelativePos(pos));
+		}
+
+		Map<BlockPos, BlockState> removed = new HashMap<>(blocks.size());
+		Long2IntOpenHashMap columnTops = new Long2IntOpenHashMap();
+		columnTops.defaultReturnValue(Integer.MIN_VALUE);
+		LevelLightEngine lightEngine = level.getChunkSource().getLightEngine();
+
+		for (Long2ObjectMap.Entry<ShortArrayList> entry : sections.long2ObjectEntrySet()) {
+			removeFromSection(level, SectionPos.of(entry.getLongKey()), entry.getValue(), removed, columnTops, lightEngine);
+		}
+
+		LongOpenHashSet removedPositions = new LongOpenHashSet(removed.size());
+		removed.keySet().forEach(pos -> removedPositions.add(pos.asLong()));
+
+		// Heightmaps and sky light sources scan down from the changed block themselves, so only the top removed block
+		// of a column matters
+		for (Long2IntMap.Entry entry : columnTops.long2IntEntrySet()) {
+			int x = BlockPos.getX(entry.getLongKey());
+			int y = entry.getIntValue();
+			int z = BlockPos.getZ(entry.getLongKey());
+			LevelChunk chunk = level.getChunk(SectionPos.blockToSectionCoord(x), SectionPos.blockToSectionCoord(z));
+			for (Map.Entry<Heightmap.Types, Heightmap> heightmap : chunk.getHeightmaps()) {
+				heightmap.getValue().update(x & 15, y, z & 15, AIR);
+			}
+			chunk.getSkyLightSources().update(chunk, x & 15, y, z & 15);
+		}
+		checkLight(removed, removedPositions, columnTops, lightEngine);
+
+		removed.forEach((pos, oldState) -> {
+			oldState.onRemove(level, pos, AIR, false);
+
+			// Only states that are points of interest need the full state change, the rest just has to reach the index
+			if (PoiTypes.forState(oldState).isPresent())
+				level.onBlockStateChange(pos, oldState, AIR);
+			else
+				TreeConnectivityIndex.onBlockStateChange(level, pos, oldState, AIR);
+		});
+
+		updateNavigation(level, removed);
+		updateBoundary(level, removed, removedPositions, pending);
+
+		TreeMetrics.REMOVAL.record(System.nanoTime() - start);
+		TreeMetrics.BLOCKS_REMOVED.add(removed.size());
+		event.end();
+		if (event.shouldCommit()) {
+			event.blocksRemoved = removed.size();
+			event.sections = sections.size();
+			event.commit();
+		}
+		return removed;
+	}
+
+	/**
+	 * Queues light checks for the removed blocks whose light could not be fixed by the engine spreading light in from
+	 * a neighbour: blocks on the boundary of the removed region, blocks that emitted light, and the top of every column
+	 * for sky light. The engine carries light from those into the rest of the region, which only became more
+	 * transparent.
+	 */
+	private static void checkLight(Map<BlockPos, BlockState> removed, LongOpenHashSet removedPositions,
+								   Long2IntOpenHashMap columnTops, LevelLightEngine lightEngine) {
+		int candidates = 0;
+		int checks = 0;
+		for (Map.Entry<BlockPos, BlockState> entry : removed.entrySet()) {
+			BlockPos pos = entry.getKey();
+			BlockState oldState = entry.getValue();
+			if (!LightEngine.hasDifferentLightProperties(oldState, AIR))
+				continue;
+			candidates++;
+
+			if (oldState.getLightEmission() > 0 || isBoundary(pos.asLong(), removedPositions) ||
+					columnTops.get(BlockPos.asLong(pos.getX(), 0, pos.getZ())) == pos.getY()) {
+				lightEngine.checkBlock(pos);
+				checks++;
+			}
+		}
+		TreeMetrics.AVOIDED_LIGHT_CHECKS.add(candidates - checks);
+	}
+
+	private static boolean isBoundary(long pos, LongOpenHashSet removedPositions) {
+		for (Direction direction : UPDATE_ORDER) {
+			if (!removedPositions.contains(BlockPos.offset(pos, direction)))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Sends shape and neighbour updates across the faces between removed blocks and the rest of the level. Faces between
+	 * two removed blocks are skipped, both sides are air now and would not react anyway.
+	 */
+	private static void updateBoundary(ServerLevel level, Map<BlockPos, BlockState> removed, LongOpenHashSet removedPositions,
+									   LongPredicate pending) {
+		removed.forEach((pos, oldState) -> {
+			boolean isBoundary = false;
+			for (Direction direction : UPDATE_ORDER) {
+				long neighbor = BlockPos.offset(pos.asLong(), direction);
+				if (removedPositions.contains(neighbor) || pending.test(neighbor))
+					continue;
+
+				isBoundary = true;
+				BlockPos neighborPos = BlockPos.of(neighbor);
+				level.neighborShapeChanged(direction.getOpposite(), neighborPos, pos, AIR, 511, 512);
+				level.neighborChanged(neighborPos, AIR.getBlock(), null);
+			}
+
+			if (isBoundary)
+				oldState.updateIndirectNeighbourShapes(level, pos, 511);
+		});
+	}
+
+	/**
+	 * Does the navigation part of {@link ServerLevel#sendBlockUpdated} for every removed block, without sending the
+	 * blocks to clients again: cached path types are dropped, and every navigating mob with a path near a removed block
+	 * that had a collision shape recomputes it once.
+	 */
+	private static void updateNavigation(ServerLevel level, Map<BlockPos, BlockState> removed) {
+		PathTypeCache pathTypeCache = level.getPathTypeCache();
+		List<BlockPos> opened = new ArrayList<>();
+		removed.forEach((pos, oldState) -> {
+			pathTypeCache.invalidate(pos);
+			if (!oldState.getCollisionShape(level, pos).isEmpty())
+				opened.add(pos);
+		});
+		if (opened.isEmpty())
+			return;
+
+		List<PathNavigation> navigations = new ArrayList<>();
+		for (Mob mob : ((ServerLevelAccessor) level).getNavigatingMobs()) {
+			PathNavigation navigation = mob.getNavigation();
+			for (BlockPos pos : opened) {
+				if (navigation.shouldRecomputePath(pos)) {
+					navigations.add(navigation);
+					break;
+				}
+			}
+		}
+		navigations.forEach(PathNavigation::recomputePath);
+	}
+
+	private static void removeFromSection(ServerLevel level, SectionPos sectionPos, ShortArrayList positions,
+										  Map<BlockPos, BlockState> removed, Long2IntOpenHashMap columnTops,
+										  LevelLightEngine lightEngine) {
+		LevelChunk chunk = level.getChunk(sectionPos.x(), sectionPos.z());
+		int sectionIndex = chunk.getSectionIndexFromSectionY(sectionPos.y());
+		if (sectionIndex < 0 || sectionIndex >= chunk.getSectionsCount())
+			return;
+
+		LevelChunkSection section = chunk.getSection(sectionIndex);
+		boolean wasEmpty = section.hasOnlyAir();
+		ShortOpenHashSet changed = new ShortOpenHashSet(positions.size());
+
+		ShortIterator iterator = positions.iterator();
+		while (iterator.hasNext()) {
+			short packed = iterator.nextShort();
+			int x = SectionPos.sectionRelativeX(packed);
+			int y = SectionPos.sectionRelativeY(packed);
+			int z = SectionPos.sectionRelativeZ(packed);
+			BlockState oldState = section.setBlockState(x, y, z, AIR);
+			if (oldState.isAir())
+				continue;
+
+			BlockPos pos = sectionPos.relativeToBlockPos(packed);
+			changed.add(packed);
+			removed.put(pos, oldState);
+
+			long column = BlockPos.asLong(pos.getX(), 0, pos.getZ());
+			if (pos.getY() > columnTops.get(column))
+				columnTops.put(column, pos.getY());
+		}
+
+		if (changed.isEmpty())
+			return;
+
+		boolean isEmpty = section.hasOnlyAir();
+		if (wasEmpty != isEmpty)
+			lightEngine.updateSectionStatus(sectionPos, isEmpty);
+		chunk.markUnsaved();
+
+		ClientboundSectionBlocksUpdatePacket packet = new ClientboundSectionBlocksUpdatePacket(sectionPos, changed, section);
+		for (ServerPlayer player : level.getChunkSource().chunkMap.getPlayers(new ChunkPos(sectionPos.x(), sectionPos.z()), false)) {
+			player.connection.send(packet);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.world;
+
+import me.pandamods.fallingtrees.config.CommonConfig;
+import me.pandamods.fallingtrees.config.FallingTreesConfig;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.util.Mth;
+import net.minecraft.world.Container;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.EntityType;
+import net.minecraft.world.entity.item.ItemEntity;
+import net.minecraft.world.entity.player.Inventory;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.level.block.entity.HopperBlockEntity;
+import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Hands out the drops of felled trees.
+ * <p>
+ * With the {@link CommonConfig.DropSink#INVENTORY} sink, drops go straight into the chopping player's inventory and
+ * only what does not fit is dropped. The {@link CommonConfig.DropSink#CONTAINER} sink does the same with the container
+ * nearest to the tree within {@code drops.containerSearchRadius} blocks. Dropped stacks are queued per level and spawned as item entities over the
+ * following ticks, at most {@code drops.maxItemEntitiesPerTick} per level and tick.
+ */
+public class TreeDropSpawner {
+	private static final Map<ServerLevel, ArrayDeque<PendingDrop>> QUEUES = new HashMap<>();
+
+	public static void dropItems(ServerLevel level, Vec3 pos, List<ItemStack> drops, @Nullable Entity owner) {
+		CommonConfig.Drops config = FallingTreesConfig.getCommonConfig().drops;
+		Inventory inventory = null;
+		if (config.sink == CommonConfig.DropSink.INVENTORY && owner instanceof ServerPlayer player &&
+				player.isAlive() && player.level() == level)
+			inventory = player.getInventory();
+
+		Container container = null;
+		if (config.sink == CommonConfig.DropSink.CONTAINER && !drops.isEmpty())
+			container = findContainer(level, BlockPos.containing(pos), config.containerSearchRadius);
+
+		ArrayDeque<PendingDrop> queue = null;
+		for (ItemStack drop : drops) {
+			ItemStack stack = drop.copy();
+			if (inventory != null)
+				inventory.add(stack);
+			else if (container != null)
+				stack = HopperBlockEntity.addItem(null, container, stack, null);
+			if (stack.isEmpty())
+				continue;
+
+			if (queue == null)
+				queue = QUEUES.computeIfAbsent(level, l -> new ArrayDeque<>());
+			queue.add(new PendingDrop(pos, stack));
+		}
+	}
+
+	public static int getPendingCount() {
+		int count = 0;
+		for (ArrayDeque<PendingDrop> queue : QUEUES.values()) {
+			count += queue.size();
+		}
+		return count;
+	}
+
+	public static void tick(ServerLevel level) {
+		ArrayDeque<PendingDrop> queue = QUEUES.get(level);
+		if (queue == null) return;
+
+		int budget = Math.max(1, FallingTreesConfig.getCommonConfig().drops.maxItemEntitiesPerTick);
+		for (int i = 0; i < budget && !queue.isEmpty(); i++) {
+			spawn(level, queue.poll());
+		}
+		if (queue.isEmpty())
+			QUEUES.remove(level);
+	}
+
+	/**
+	 * Spawns every queued drop of the level right away.
+	 */
+	public static void flush(ServerLevel level) {
+		ArrayDeque<PendingDrop> queue = QUEUES.remove(level);
+		if (queue != null)
+			queue.forEach(drop -> spawn(level, drop));
+	}
+
+	public static void flushAll() {
+		new ArrayList<>(QUEUES.keySet()).forEach(TreeDropSpawner::flush);
+	}
+
+	/**
+	 * Finds the block container closest to the position, double chests count as one container.
+	 */
+	private static @Nullable Container findContainer(ServerLevel level, BlockPos center, int radius) {
+		if (radius < 0) return null;
+		for (BlockPos pos : BlockPos.withinManhattan(center, radius, radius, radius)) {
+			if (level.isLoaded(pos) && level.getBlockEntity(pos) instanceof Container)
+				return HopperBlockEntity.getContainerAt(level, pos);
+		}
+		return null;
+	}
+
+	private static void spawn(ServerLevel level, PendingDrop drop) {
+		double deltaX = Mth.nextDouble(level.random, -0.1, 0.1);
+		double deltaY = 0.25;
+		double deltaZ = Mth.nextDouble(level.random, -0.1, 0.1);
+
+		ItemEntity entity = new ItemEntity(level, drop.pos.x, drop.pos.y + EntityType.ITEM.getHeight() / 2, drop.pos.z,
+				drop.stack, deltaX, deltaY, deltaZ);
+		entity.setDefaultPickUpDelay();
+		level.addFreshEntity(entity);
+	}
+
+	private record PendingDrop(Vec3 pos, ItemStack stack) {}
+}
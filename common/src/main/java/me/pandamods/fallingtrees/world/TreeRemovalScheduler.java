@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2024 Oliver Froberg (The Panda Oliver)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.pandamods.fallingtrees.world;
+
+import me.pandamods.fallingtrees.config.CommonConfig;
+import me.pandamods.fallingtrees.config.FallingTreesConfig;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.shorts.ShortOpenHashSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.network.protocol.game.ClientboundSectionBlocksUpdatePacket;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.block.state.properties.BlockStateProperties;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+
+import java.util.*;
+
+/**
+ * Removes the blocks of very large trees over several ticks, so felling them does not stall a single tick.
+ * <p>
+ * Scheduled blocks are hidden from clients right away and removed in slices until the per-tick time budget runs out.
+ * Breaking a scheduled block is cancelled, since its drops already belong to the falling tree, and blocks that changed
+ * since they were scheduled are left alone. Anything still scheduled when the server stops is removed immediately.
+ * <p>
+ * Removing a slice sends no updates into blocks that are still scheduled, so leaves keep the state they were scheduled
+ * with. Hiding only affects clients, scheduled blocks stay solid on the server until their slice is removed, so players
+ * walking into a hidden tree in the meantime are pushed back. That is why incremental removal has to be turned on in the
+ * config.
+ */
+public class TreeRemovalScheduler {
+	private static final int SLICE_SIZE = 64;
+	private static final Map<ServerLevel, LevelQueue> QUEUES = new HashMap<>();
+
+	/**
+	 * @return true if the blocks should be removed through the scheduler instead of all at once
+	 */
+	public static boolean shouldSchedule(Collection<BlockPos> blocks) {
+		CommonConfig.IncrementalRemoval config = FallingTreesConfig.getCommonConfig().incrementalRemoval;
+		return config.enabled && blocks.size() >= config.minBlockAmount;
+	}
+
+	public static void schedule(ServerLevel level, Collection<BlockPos> blocks) {
+		List<PendingBlock> pendingBlocks = new ArrayList<>(blocks.size());
+		for (BlockPos pos : blocks) {
+			BlockState state = level.getBlockState(pos);
+			if (!state.isAir())
+				pendingBlocks.add(new PendingBlock(pos.immutable(), state));
+		}
+
+		// Leaves go first, so they are never left without logs long enough to start decaying
+		pendingBlocks.sort(Comparator
+				.comparing((PendingBlock block) -> !block.state.hasProperty(BlockStateProperties.DISTANCE))
+				.thenComparingLong(block -> SectionPos.blockToSection(block.pos.asLong())));
+
+		LevelQueue queue = QUEUES.computeIfAbsent(level, l -> new LevelQueue());
+		for (PendingBlock block : pendingBlocks) {
+			if (queue.positions.add(block.pos.asLong()))
+				queue.blocks.add(block);
+		}
+		hide(level, pendingBlocks);
+	}
+
+	public static boolean isPending(ServerLevel level, BlockPos pos) {
+		LevelQueue queue = QUEUES.get(level);
+		return queue != null && queue.positions.contains(pos.asLong());
+	}
+
+	public static int getPendingCount() {
+		int count = 0;
+		for (LevelQueue queue : QUEUES.values()) {
+			count += queue.blocks.size();
+		}
+		return count;
+	}
+
+	public static void tick(ServerLevel level) {
+		LevelQueue queue = QUEUES.get(level);
+		if (queue == null) return;
+
+		long budgetNanos = FallingTreesConfig.getCommonConfig().incrementalRemoval.tickBudgetMicros * 1000L;
+		long start = System.nanoTime();
+		do {
+			removeSlice(level, queue, SLICE_SIZE);
+		} while (!queue.blocks.isEmpty() && System.nanoTime() - start < budgetNanos);
+
+		if (queue.blocks.isEmpty())
+			QUEUES.remove(level);
+	}
+
+	/**
+	 * Removes every scheduled block of the level right away.
+	 */
+	public static void flush(ServerLevel level) {
+		LevelQueue queue = QUEUES.remove(level);
+		if (queue != null)
+			removeSlice(level, queue, queue.blocks.size());
+	}
+
+	public static void flushAll() {
+		new ArrayList<>(QUEUES.keySet()).forEach(TreeRemovalScheduler::flush);
+	}
+
+	private static void removeSlice(ServerLevel level, LevelQueue queue, int size) {
+		List<BlockPos> slice = new ArrayList<>(Math.min(size, queue.blocks.size()));
+		while (slice.size() < size && !queue.blocks.isEmpty()) {
+			PendingBlock block = queue.blocks.poll();
+			queue.positions.remove(block.pos.asLong());
+			if (isUnchanged(level.getBlockState(block.pos), block.state))
+				slice.add(block.pos);
+		}
+		if (!slice.isEmpty())
+			TreeBlockRemover.removeBlocks(level, slice, queue.positions::contains);
+	}
+
+	/**
+	 * Leaves still count as unchanged when only their distance or persistence changed, those follow from the blocks
+	 * around them.
+	 */
+	private static boolean isUnchanged(BlockState current, BlockState scheduled) {
+		if (current == scheduled)
+			return true;
+		return scheduled.hasProperty(BlockStateProperties.DISTANCE) && current.is(scheduled.getBlock());
+	}
+
+	/**
+	 * Sends the blocks to clients as air, using an empty section as the source of the packet.
+	 */
+	private static void hide(ServerLevel level, List<PendingBlock> blocks) {
+		Long2ObjectOpenHashMap<ShortOpenHashSet> sections = new Long2ObjectOpenHashMap<>();
+		for (PendingBlock block : blocks) {
+			sections.computeIfAbsent(SectionPos.blockToSection(block.pos.asLong()), key -> new ShortOpenHashSet())
+					.add(SectionPos.sectionRelativePos(block.pos));
+		}
+
+		LevelChunkSection emptySection = new LevelChunkSection(level.registryAccess().lookupOrThrow(Registries.BIOME));
+		for (Long2ObjectMap.Entry<ShortOpenHashSet> entry : sections.long2ObjectEntrySet()) {
+			SectionPos sectionPos = SectionPos.of(entry.getLongKey());
+			ClientboundSectionBlocksUpdatePacket packet = new ClientboundSectionBlocksUpdatePacket(sectionPos, entry.getValue(), emptySection);
+			for (ServerPlayer player : level.getChunkSource().chunkMap.getPlayers(new ChunkPos(sectionPos.x(), sectionPos.z()), false)) {
+				player.connection.send(packet);
+			}
+		}
+	}
+
+	private record PendingBlock(BlockPos pos, BlockState state) {}
+
+	private static class LevelQueue {
+		private final ArrayDeque<PendingBlock> blocks = new ArrayDeque<>();
+		private final LongOpenHashSet positions = new LongOpenHashSet();
+	}
+}
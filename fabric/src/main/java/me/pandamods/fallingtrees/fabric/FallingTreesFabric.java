@@ -13,11 +13,15 @@
 package me.pandamods.fallingtrees.fabric;
 
 import me.pandamods.fallingtrees.FallingTrees;
+import me.pandamods.fallingtrees.event.EventHandler;
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.event.lifecycle.v1.CommonLifecycleEvents;
 
 public class FallingTreesFabric implements ModInitializer {
     @Override
     public void onInitialize() {
         new FallingTrees();
+
+        CommonLifecycleEvents.TAGS_LOADED.register((registries, client) -> EventHandler.onTagsReloaded());
     }
 }
@@ -13,11 +13,13 @@
 package me.pandamods.fallingtrees.neoforge;
 
 import me.pandamods.fallingtrees.FallingTrees;
+import me.pandamods.fallingtrees.event.EventHandler;
 import me.pandamods.fallingtrees.utils.BlockMapEntityData;
-import me.pandamods.fallingtrees.utils.ItemListEntityData;
 import net.minecraft.network.syncher.EntityDataSerializer;
 import net.neoforged.bus.api.IEventBus;
 import net.neoforged.fml.common.Mod;
+import net.neoforged.neoforge.common.NeoForge;
+import net.neoforged.neoforge.event.TagsUpdatedEvent;
 import net.neoforged.neoforge.registries.DeferredHolder;
 import net.neoforged.neoforge.registries.DeferredRegister;
 import net.neoforged.neoforge.registries.NeoForgeRegistries;
@@ -31,7 +33,9 @@ public class FallingTreesNeoForge {
 		new FallingTrees();
 
 		ENTITY_DATA.register("block_map", () -> BlockMapEntityData.BLOCK_MAP);
-		ENTITY_DATA.register("item_list", () -> ItemListEntityData.ITEM_LIST);
+		ENTITY_DATA.register("tree_shape", () -> BlockMapEntityData.TREE_SHAPE);
 		ENTITY_DATA.register(eventBus);
+
+		NeoForge.EVENT_BUS.addListener(TagsUpdatedEvent.class, event -> EventHandler.onTagsReloaded());
 	}
 }
@@ -18,4 +18,4 @@ pluginManagement.repositories {
 	gradlePluginPortal()
 }
 
-include("common", "fabric", "neoforge")
\ No newline at end of file
+include("common", "fabric", "neoforge", "benchmark")
\ No newline at end of file